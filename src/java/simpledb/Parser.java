@@ -15,8 +15,6 @@ import simpledb.common.Type;
 import simpledb.execution.*;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
-import simpledb.storage.IntField;
-import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.Transaction;
@@ -352,26 +350,30 @@ public class Parser {
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
+                Type type = td.getFieldType(i);
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    if (type != Type.INT_TYPE && type != Type.LONG_TYPE
+                            && type != Type.DOUBLE_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is not an integer, expected a string.");
+                                + " is a number, expected a " + type + ".");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
+                    if (type != Type.STRING_TYPE && type != Type.VARCHAR_TYPE
+                            && type != Type.DATE_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is a string, expected an integer.");
+                                + " is a string, expected a " + type + ".");
                     }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
+                            "Only string or number fields are supported.");
+                }
+                try {
+                    t.setField(i, type.parse(zc.getValue()));
+                } catch (java.text.ParseException pe) {
+                    throw new simpledb.ParsingException("Value "
+                            + zc.getValue() + " is not a " + type + ".");
                 }
 
                 i++;
@@ -41,6 +41,14 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varchar"))
+                                ts[index++] = Type.VARCHAR_TYPE;
+                            else if (s.equalsIgnoreCase("long"))
+                                ts[index++] = Type.LONG_TYPE;
+                            else if (s.equalsIgnoreCase("double"))
+                                ts[index++] = Type.DOUBLE_TYPE;
+                            else if (s.equalsIgnoreCase("date"))
+                                ts[index++] = Type.DATE_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
@@ -156,7 +156,7 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(catalogFile));
             
             while ((line = br.readLine()) != null) {
-                //assume line is of the format name (field type, field type, ...)
+                //assume line is of the format name (field type, field type, ...) [option ...]
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
@@ -171,6 +171,14 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("long"))
+                        types.add(Type.LONG_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("double"))
+                        types.add(Type.DOUBLE_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("date"))
+                        types.add(Type.DATE_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -187,7 +195,18 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // table options follow the field list, e.g. "mmap" to read
+                // the table through a memory mapping
+                boolean memoryMapped = false;
+                for (String option : line.substring(line.indexOf(")") + 1).trim().split("\\s+")) {
+                    if (option.equalsIgnoreCase("mmap"))
+                        memoryMapped = true;
+                    else if (!option.isEmpty()) {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t, memoryMapped);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
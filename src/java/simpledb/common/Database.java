@@ -55,10 +55,22 @@ public class Database {
 
     /**
      * Method used for testing -- create a new instance of the buffer pool and
-     * return it
+     * return it.
+     * <p>
+     * This writes to the data files: with a no-force pool, committed changes
+     * may be only in the old pool and the log, so they are written out first
+     * (see {@link BufferPool#flushCommittedPages}) for the new pool to read
+     * them.  Uncommitted changes are dropped unwritten.  Tests that need
+     * committed changes left off disk, e.g. for recovery to redo, must use
+     * {@link #reset} instead.
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF=null;
+        try {
+            _instance.get()._bufferpool.flushCommittedPages();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
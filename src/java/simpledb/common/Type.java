@@ -2,10 +2,18 @@ package simpledb.common;
 
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
+import simpledb.storage.DateField;
+import simpledb.storage.DoubleField;
 import simpledb.storage.IntField;
+import simpledb.storage.LongField;
+import simpledb.storage.VarcharField;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 
 /**
  * Class representing a type in SimpleDB.
@@ -19,6 +27,11 @@ public enum Type implements Serializable {
             return 4;
         }
 
+        @Override
+        public boolean isNumeric() {
+            return true;
+        }
+
         @Override
         public Field parse(DataInputStream dis) throws ParseException {
             try {
@@ -28,6 +41,24 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new IntField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            try {
+                return new IntField(Integer.parseInt(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not an int: " + s, 0);
+            }
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -46,6 +77,193 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int start = buf.position();
+                int strLen = buf.getInt();
+                if (strLen < 0 || strLen > STRING_LEN) {
+                    throw new ParseException("bad string length " + strLen, start);
+                }
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                buf.position(start + getLen());
+                return new StringField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new StringField(s, STRING_LEN);
+        }
+    }, VARCHAR_TYPE() {
+        /**
+         * @return the most bytes a value takes; each takes four bytes for
+         *   its length and then only its characters, without padding.
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN+4;
+        }
+
+        @Override
+        public boolean isVariableLength() {
+            return true;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readInt();
+                if (strLen < 0 || strLen > STRING_LEN) {
+                    throw new ParseException("bad string length " + strLen, 0);
+                }
+                byte[] bs = new byte[strLen];
+                dis.readFully(bs);
+                return new VarcharField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                int start = buf.position();
+                int strLen = buf.getInt();
+                if (strLen < 0 || strLen > STRING_LEN) {
+                    throw new ParseException("bad string length " + strLen, start);
+                }
+                byte[] bs = new byte[strLen];
+                buf.get(bs);
+                return new VarcharField(new String(bs), STRING_LEN);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(String s) {
+            return new VarcharField(s, STRING_LEN);
+        }
+    }, LONG_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new LongField(dis.readLong());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new LongField(buf.getLong());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            try {
+                return new LongField(Long.parseLong(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not a long: " + s, 0);
+            }
+        }
+    }, DOUBLE_TYPE() {
+        @Override
+        public int getLen() {
+            return 8;
+        }
+
+        @Override
+        public boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DoubleField(dis.readDouble());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new DoubleField(buf.getDouble());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        @Override
+        public Field parse(String s) throws ParseException {
+            try {
+                return new DoubleField(Double.parseDouble(s.trim()));
+            } catch (NumberFormatException e) {
+                throw new ParseException("not a double: " + s, 0);
+            }
+        }
+    }, DATE_TYPE() {
+        /**
+         * @return the bytes of the number of days since 1970-01-01
+         */
+        @Override
+        public int getLen() {
+            return 4;
+        }
+
+        @Override
+        public boolean isNumeric() {
+            return true;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                return new DateField(dis.readInt());
+            }  catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf) throws ParseException {
+            try {
+                return new DateField(buf.getInt());
+            } catch (BufferUnderflowException e) {
+                throw new ParseException("couldn't parse", buf.position());
+            }
+        }
+
+        /** Parses dates as yyyy-mm-dd. */
+        @Override
+        public Field parse(String s) throws ParseException {
+            try {
+                return new DateField(LocalDate.parse(s.trim()));
+            } catch (DateTimeParseException | ArithmeticException e) {
+                throw new ParseException("not a date: " + s, 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -55,6 +273,24 @@ public enum Type implements Serializable {
    */
     public abstract int getLen();
 
+  /**
+   * @return true if fields of this type take as many bytes as their value
+   *   needs, at most {@link #getLen()}.  Tables with such fields are stored
+   *   in slotted pages.
+   * @see simpledb.storage.SlottedHeapPage
+   */
+    public boolean isVariableLength() {
+        return false;
+    }
+
+  /**
+   * @return true if fields of this type hold numbers (or, for dates, days)
+   *   that can be summed and averaged, and are kept in numeric histograms
+   */
+    public boolean isNumeric() {
+        return false;
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -64,4 +300,24 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from the current position of the specified buffer, which is
+   *   advanced past it.  Reads straight from (e.g. memory mapped) buffers,
+   *   without a stream in between.
+   * @param buf The buffer to read from
+   * @throws ParseException if the data in the buffer is not of the
+   *   appropriate type.
+   */
+    public abstract Field parse(ByteBuffer buf) throws ParseException;
+
+  /**
+   * @return a Field object of the same type as this object with the value
+   *   written in the specified text, e.g. a constant in a query or a value
+   *   in a file being converted.
+   * @param s The text of the value
+   * @throws ParseException if the text is not a value of this type.
+   */
+    public abstract Field parse(String s) throws ParseException;
+
 }
@@ -31,8 +31,9 @@ public class Aggregate extends Operator {
      * Constructor.
      * <p>
      * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
+     * construct an {@link IntegerAggregator}, {@link NumericAggregator} or
+     * {@link StringAggregator} to help you with your implementation of
+     * readNext().
      *
      * @param child  The OpIterator that is feeding us tuples.
      * @param afield The column over which we are computing an aggregate.
@@ -55,6 +56,8 @@ public class Aggregate extends Operator {
         Type type = tableOpIterator.getTupleDesc().getFieldType(aggregateFieldIndex);
         if (type == Type.INT_TYPE) {
             aggregator = new IntegerAggregator(groupFieldIndex, groupFieldType, aggregateFieldIndex, aggregateOp);
+        } else if (type.isNumeric()) {
+            aggregator = new NumericAggregator(groupFieldIndex, groupFieldType, aggregateFieldIndex, type, aggregateOp);
         } else {
             aggregator = new StringAggregator(groupFieldIndex, groupFieldType, aggregateFieldIndex, aggregateOp);
         }
@@ -133,6 +136,18 @@ public class Aggregate extends Operator {
         return null;
     }
 
+    /**
+     * @return the type of the values the given aggregate of a field of the
+     * given type computes
+     * @see NumericAggregator
+     */
+    public static Type resultType(Type fieldType, Aggregator.Op aop) {
+        if (fieldType.isNumeric()) {
+            return NumericAggregator.resultType(fieldType, aop);
+        }
+        return Type.INT_TYPE;
+    }
+
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
@@ -0,0 +1,176 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Knows how to compute some aggregate over a set of LongFields,
+ * DoubleFields or DateFields.  Longs and dates are compared and summed as
+ * longs, doubles as doubles, without going through strings or boxed values.
+ * <p>
+ * COUNT is an INT, AVG a DOUBLE, and SUM a LONG, or a DOUBLE for doubles.
+ * MIN and MAX are of the type of the field.  Dates have no SUM or AVG.
+ */
+public class NumericAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int groupFieldIndex;
+    private final Type groupFieldType;
+    private final int aggregateFieldIndex;
+    private final Type aggregateFieldType;
+    private final Op aggregateOperator;
+    private final TupleDesc aggregateTd;
+    private final Map<Field, AggInfo> mapAggInfo;
+
+    private static class AggInfo {
+        int count;
+        long longSum;
+        double doubleSum;
+        Field min;
+        Field max;
+    }
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field: LONG_TYPE, DOUBLE_TYPE or
+     *            DATE_TYPE
+     * @param what
+     *            the aggregation operator
+     * @throws IllegalArgumentException if the operator does not apply to
+     *            the type
+     */
+    public NumericAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        Type result = resultType(afieldtype, what);
+        if (gbfieldtype != null) {
+            groupFieldIndex = gbfield;
+            groupFieldType = gbfieldtype;
+            aggregateTd = new TupleDesc(new Type[]{groupFieldType, result});
+        } else {
+            groupFieldIndex = -1;
+            groupFieldType = null;
+            aggregateTd = new TupleDesc(new Type[]{result});
+        }
+        aggregateFieldIndex = afield;
+        aggregateFieldType = afieldtype;
+        aggregateOperator = what;
+        mapAggInfo = new HashMap<>();
+    }
+
+    /**
+     * @return the type of the given aggregate of a field of the given type
+     * @throws IllegalArgumentException if the operator does not apply to
+     *            the type
+     */
+    public static Type resultType(Type fieldType, Op op) {
+        if (fieldType != Type.LONG_TYPE && fieldType != Type.DOUBLE_TYPE && fieldType != Type.DATE_TYPE) {
+            throw new IllegalArgumentException("not a numeric type: " + fieldType);
+        }
+        switch (op) {
+            case COUNT:
+                return Type.INT_TYPE;
+            case MIN:
+            case MAX:
+                return fieldType;
+            case SUM:
+            case AVG:
+                if (fieldType == Type.DATE_TYPE) {
+                    throw new IllegalArgumentException("cannot " + op + " dates");
+                }
+                return op == Op.AVG || fieldType == Type.DOUBLE_TYPE ? Type.DOUBLE_TYPE : Type.LONG_TYPE;
+            default:
+                throw new IllegalArgumentException(op + " is not supported");
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        Field gtf;
+        if (this.groupFieldType != null) {
+            gtf = tup.getField(this.groupFieldIndex);
+        } else {
+            gtf = new IntField(-1);
+        }
+        AggInfo aggInfo = this.mapAggInfo.get(gtf);
+        if (aggInfo == null) {
+            aggInfo = new AggInfo();
+            this.mapAggInfo.put(gtf, aggInfo);
+        }
+
+        Field atf = tup.getField(this.aggregateFieldIndex);
+        aggInfo.count++;
+        if (atf instanceof DoubleField) {
+            aggInfo.doubleSum += ((DoubleField) atf).getValue();
+        } else if (atf instanceof LongField) {
+            aggInfo.longSum += ((LongField) atf).getValue();
+        }
+        if (aggInfo.min == null || atf.compare(Predicate.Op.LESS_THAN, aggInfo.min)) {
+            aggInfo.min = atf;
+        }
+        if (aggInfo.max == null || atf.compare(Predicate.Op.GREATER_THAN, aggInfo.max)) {
+            aggInfo.max = atf;
+        }
+    }
+
+    private Field result(AggInfo aggInfo) {
+        boolean doubles = this.aggregateFieldType == Type.DOUBLE_TYPE;
+        switch (this.aggregateOperator) {
+            case COUNT:
+                return new IntField(aggInfo.count);
+            case MIN:
+                return aggInfo.min;
+            case MAX:
+                return aggInfo.max;
+            case SUM:
+                return doubles ? new DoubleField(aggInfo.doubleSum) : new LongField(aggInfo.longSum);
+            case AVG:
+                return new DoubleField((doubles ? aggInfo.doubleSum : (double) aggInfo.longSum) / aggInfo.count);
+            default:
+                throw new RuntimeException("not support in result");
+        }
+    }
+
+    /**
+     * Create a OpIterator over group aggregate results.
+     *
+     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public OpIterator iterator() {
+        List<Tuple> listTuple = new ArrayList<>();
+        for (Map.Entry<Field, AggInfo> entry : this.mapAggInfo.entrySet()) {
+            Tuple tuple = new Tuple(this.aggregateTd);
+            int index = 0;
+            if (this.groupFieldType != null) {
+                tuple.setField(index++, entry.getKey());
+            }
+            tuple.setField(index, result(entry.getValue()));
+            listTuple.add(tuple);
+        }
+        return new TupleIterator(this.aggregateTd, listTuple);
+    }
+
+}
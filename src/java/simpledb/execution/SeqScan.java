@@ -7,6 +7,7 @@ import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -90,7 +91,12 @@ public class SeqScan implements OpIterator {
         // some code goes here
         if (this.heapFileIterator == null) {
             DbFile heapFile = Database.getCatalog().getDatabaseFile(this.tableId);
-            this.heapFileIterator = heapFile.iterator(this.transactionId);
+            if (heapFile instanceof HeapFile) {
+                // a scan reads every page once, don't let it flood the pool
+                this.heapFileIterator = ((HeapFile) heapFile).iterator(this.transactionId, true);
+            } else {
+                this.heapFileIterator = heapFile.iterator(this.transactionId);
+            }
             this.heapFileIterator.open();
         }
     }
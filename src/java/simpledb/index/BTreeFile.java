@@ -1,6 +1,7 @@
 package simpledb.index;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import simpledb.common.Database;
@@ -32,6 +33,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final MappedFile mappedFile;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -42,10 +44,25 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, key, td, false);
+	}
+
+	/**
+	 * Constructs a B+ tree file backed by the specified file, optionally
+	 * reading its pages from a memory mapping of the file.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param key - the field which index is keyed on
+	 * @param td - the tuple descriptor of tuples in the file
+	 * @param memoryMapped - whether to read pages from a memory mapping of f
+	 */
+	public BTreeFile(File f, int key, TupleDesc td, boolean memoryMapped) {
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
+		this.mappedFile = memoryMapped ? new MappedFile(f) : null;
 	}
 
 	/**
@@ -87,6 +104,13 @@ public class BTreeFile implements DbFile {
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
 
+		if (mappedFile != null) {
+			Page page = readMappedPage(id);
+			if (page != null) {
+				return page;
+			}
+		}
+
         try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
                 byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
@@ -116,13 +140,7 @@ public class BTreeFile implements DbFile {
                             + BufferPool.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
-                } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
-                } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
-                }
+                return createPage(id, pageBuf);
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
@@ -131,6 +149,48 @@ public class BTreeFile implements DbFile {
         // Ignore failures closing the file
     }
 
+	/**
+	 * Read a page by copying it out of the memory mapping of the file,
+	 * which saves the read system call.
+	 * 
+	 * @return the page, or null if it has to be read from the file instead
+	 */
+	private Page readMappedPage(BTreePageId id) {
+		long pos;
+		int len;
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			pos = 0;
+			len = BTreeRootPtrPage.getPageSize();
+		} else {
+			pos = BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize();
+			len = BufferPool.getPageSize();
+		}
+		try {
+			ByteBuffer mapped = mappedFile.slice(pos, len);
+			if (mapped == null) {
+				return null;
+			}
+			byte[] pageBuf = new byte[len];
+			mapped.get(pageBuf);
+			Debug.log(1, "BTreeFile.readPage: mapped page %d", id.getPageNumber());
+			return createPage(id, pageBuf);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private Page createPage(BTreePageId id, byte[] pageBuf) throws IOException {
+		if (id.pgcateg() == BTreePageId.ROOT_PTR) {
+			return new BTreeRootPtrPage(id, pageBuf);
+		} else if (id.pgcateg() == BTreePageId.INTERNAL) {
+			return new BTreeInternalPage(id, pageBuf, keyField);
+		} else if (id.pgcateg() == BTreePageId.LEAF) {
+			return new BTreeLeafPage(id, pageBuf, keyField);
+		} else { // id.pgcateg() == BTreePageId.HEADER
+			return new BTreeHeaderPage(id, pageBuf);
+		}
+	}
+
 	/**
 	 * Write a page to disk.  This should not be called directly but should 
 	 * be called from the BufferPool when pages are flushed to disk
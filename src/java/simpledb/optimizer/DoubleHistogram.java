@@ -0,0 +1,138 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+/** A class to represent a fixed-width histogram over a single numeric
+ * field: a long, a double, or a date as its number of days, all
+ * histogrammed as doubles.
+ *
+ * @see IntHistogram
+ */
+public class DoubleHistogram {
+
+    private final int[] counts;
+    private final double minInput;
+    private final double maxInput;
+    private final double width;
+    private final boolean wholeNumbers;
+    private int inputCount;
+
+    /**
+     * Create a new DoubleHistogram.
+     *
+     * @param buckets The number of buckets to split the input value into.
+     * @param min The minimum value that will ever be passed to this class for histogramming
+     * @param max The maximum value that will ever be passed to this class for histogramming
+     * @param wholeNumbers Whether the values are whole numbers, as longs and
+     *            dates are, rather than doubles
+     */
+    public DoubleHistogram(int buckets, double min, double max, boolean wholeNumbers) {
+        counts = new int[buckets];
+        minInput = min;
+        maxInput = max;
+        width = (max - min) / buckets;
+        this.wholeNumbers = wholeNumbers;
+        inputCount = 0;
+    }
+
+    private int bucket(double v) {
+        if (width == 0) {
+            return 0;
+        }
+        return Math.min((int) ((v - minInput) / width), counts.length - 1);
+    }
+
+    /**
+     * Add a value to the set of values that you are keeping a histogram of.
+     * @param v Value to add to the histogram
+     */
+    public void addValue(double v) {
+        if (v < minInput || v > maxInput) {
+            return;
+        }
+        counts[bucket(v)]++;
+        inputCount++;
+    }
+
+    // whole numbers (longs, dates) have about width distinct values a
+    // bucket; doubles are taken to be all distinct, so one entry matches
+    private double doEquals(double v) {
+        if (v < minInput || v > maxInput) {
+            return 0;
+        }
+        int count = counts[bucket(v)];
+        return wholeNumbers ? count / Math.max(1.0, width) : Math.min(count, 1);
+    }
+
+    // counts the part of the bucket of v above it
+    private double doGreaterThan(double v) {
+        if (v < minInput) {
+            return inputCount;
+        }
+        if (v >= maxInput) {
+            return 0;
+        }
+        int b = bucket(v);
+        double result = 0;
+        if (width > 0) {
+            result = counts[b] * (minInput + (b + 1) * width - v) / width;
+        }
+        for (int i = b + 1; i < counts.length; i++) {
+            result += counts[i];
+        }
+        return result;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this table.
+     *
+     * @param op Operator
+     * @param v Value
+     * @return Predicted selectivity of this particular operator and value
+     */
+    public double estimateSelectivity(Predicate.Op op, double v) {
+        if (inputCount == 0) {
+            return 0;
+        }
+        double result;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                result = doEquals(v);
+                break;
+            case NOT_EQUALS:
+                result = inputCount - doEquals(v);
+                break;
+            case GREATER_THAN:
+                result = doGreaterThan(v);
+                break;
+            case GREATER_THAN_OR_EQ:
+                result = doGreaterThan(v) + doEquals(v);
+                break;
+            case LESS_THAN:
+                result = inputCount - doGreaterThan(v) - doEquals(v);
+                break;
+            case LESS_THAN_OR_EQ:
+                result = inputCount - doGreaterThan(v);
+                break;
+            default:
+                result = 0;
+        }
+        return Math.max(0.0, Math.min(1.0, result / inputCount));
+    }
+
+    /**
+     * @return the average selectivity of this histogram.
+     */
+    public double avgSelectivity()
+    {
+        return 1.0;
+    }
+
+    /**
+     * @return A string describing this histogram, for debugging purposes
+     */
+    public String toString() {
+        return "DoubleHistogram[" + minInput + ", " + maxInput + "] " + java.util.Arrays.toString(counts);
+    }
+}
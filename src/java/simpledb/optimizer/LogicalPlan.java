@@ -324,10 +324,11 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                f = ftyp.parse(lf.c);
+            } catch (java.text.ParseException e) {
+                throw new ParsingException("Bad constant " + lf.c + " for field " + lf.fieldQuantifiedName);
+            }
 
             Predicate p = null;
             try {
@@ -415,14 +416,17 @@ public class LogicalPlan {
             if (si.aggOp != null) {
                 outFields.add(groupByField!=null?1:0);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
+                int  id;
                 try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
+                    id = td.fieldNameToIndex(si.fname);
                 } catch (NoSuchElementException e) {
                     throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                try {
+                    outTypes.add(Aggregate.resultType(td.getFieldType(id), getAggOp(si.aggOp)));
+                } catch (IllegalArgumentException e) {
+                    throw new ParsingException(e);
+                }
 
             } else if (hasAgg) {
                     if (groupByField == null) {
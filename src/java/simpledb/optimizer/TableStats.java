@@ -77,16 +77,34 @@ public class TableStats {
     private class ColHistogramInfo {
         public Type fieldType;
         public IntHistogram intHistogram;
+        public DoubleHistogram doubleHistogram;
         public StringHistogram stringHistogram;
     }
 
-    private Map<Integer, ArrayList> fetchFieldValues(int tableId) {
+    // the value of a long, double or date field, as a DoubleHistogram keeps it
+    private static double numericValue(Field field) {
+        if (field instanceof LongField) {
+            return ((LongField) field).getValue();
+        } else if (field instanceof DoubleField) {
+            return ((DoubleField) field).getValue();
+        } else {
+            return ((DateField) field).getEpochDay();
+        }
+    }
+
+    /**
+     * @param numericValues filled with the values of the long, double and
+     *   date fields, which are not in the map returned
+     */
+    private Map<Integer, ArrayList> fetchFieldValues(int tableId, Map<Integer, ArrayList<Double>> numericValues) {
         Map<Integer, ArrayList> result = new HashMap<>();
         SeqScan seqScan = new SeqScan(new TransactionId(), tableId);
         for (int i=0;i<seqScan.getTupleDesc().numFields();i++) {
             Type type = seqScan.getTupleDesc().getFieldType(i);
             if (type == Type.INT_TYPE) {
                 result.put(i, new ArrayList<Integer>());
+            } else if (type.isNumeric()) {
+                numericValues.put(i, new ArrayList<>());
             } else {
                 result.put(i, new ArrayList<String>());
             }
@@ -116,6 +134,8 @@ public class TableStats {
                     if (type == Type.INT_TYPE) {
                         IntField intField = (IntField)tuple.getField(i);
                         list.add(intField.getValue());
+                    } else if (type.isNumeric()) {
+                        numericValues.get(i).add(numericValue(tuple.getField(i)));
                     } else {
                         StringField stringField = (StringField) tuple.getField(i);
                         list.add(stringField.getValue());
@@ -159,7 +179,8 @@ public class TableStats {
         HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(this.tableId);
         TupleDesc tupleDesc = heapFile.getTupleDesc();
 
-        Map<Integer, ArrayList> fieldValues = fetchFieldValues(this.tableId);
+        Map<Integer, ArrayList<Double>> numericValues = new HashMap<>();
+        Map<Integer, ArrayList> fieldValues = fetchFieldValues(this.tableId, numericValues);
         for (int key : fieldValues.keySet()) {
             ColHistogramInfo colHistogramInfo = this.mapColumnHistogram.get(key);
             if (colHistogramInfo == null) {
@@ -190,6 +211,20 @@ public class TableStats {
                 }
             }
         }
+        for (Map.Entry<Integer, ArrayList<Double>> entry : numericValues.entrySet()) {
+            ArrayList<Double> arrayList = entry.getValue();
+            Type type = tupleDesc.getFieldType(entry.getKey());
+            ColHistogramInfo colHistogramInfo = new ColHistogramInfo();
+            colHistogramInfo.fieldType = type;
+            colHistogramInfo.doubleHistogram = new DoubleHistogram(NUM_HIST_BINS,
+                    arrayList.isEmpty() ? 0 : Collections.min(arrayList),
+                    arrayList.isEmpty() ? 0 : Collections.max(arrayList),
+                    type != Type.DOUBLE_TYPE);
+            for (double value : arrayList) {
+                colHistogramInfo.doubleHistogram.addValue(value);
+            }
+            this.mapColumnHistogram.put(entry.getKey(), colHistogramInfo);
+        }
     }
 
     /**
@@ -261,6 +296,8 @@ public class TableStats {
         if (tupleDesc.getFieldType(field) == Type.INT_TYPE) {
             IntField intField = (IntField) constant;
             return colHistogramInfo.intHistogram.estimateSelectivity(op, intField.getValue());
+        } else if (tupleDesc.getFieldType(field).isNumeric()) {
+            return colHistogramInfo.doubleHistogram.estimateSelectivity(op, numericValue(constant));
         } else {
             StringField stringField = (StringField) constant;
             return colHistogramInfo.stringHistogram.estimateSelectivity(op, stringField.getValue());
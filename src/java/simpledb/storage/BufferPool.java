@@ -10,9 +10,15 @@ import simpledb.transaction.TransactionId;
 import java.io.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -24,6 +30,26 @@ import java.util.concurrent.ConcurrentHashMap;
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
  * 
+ * Cached pages live in a lock-striped {@link PageTable}, so page hits do
+ * not serialize on the BufferPool monitor; the monitor is only taken to add
+ * or remove frames and to flush.
+ * <p>
+ * The pool is STEAL: a dirty page may be written out before the transaction
+ * that dirtied it completes, once the UPDATE record for it has been forced
+ * to the log.  Eviction prefers clean pages, and a background page writer
+ * trickles dirty pages out whenever more than half of the pool is dirty.
+ * An abort puts back what was stolen: record changes are undone in place,
+ * other pages get their before images written back.
+ * <p>
+ * The pool is also NO-FORCE: a commit logs the after images of the pages
+ * the transaction dirtied and forces the log, but leaves the pages dirty
+ * in the pool for the page writer or eviction to write out later.  Should
+ * a later transaction abort before they are written, it puts back the
+ * committed versions rather than just dropping its pages.  Each page
+ * written is reported to the log, which keeps the dirty page table that
+ * checkpoints record; the pages dirty at a checkpoint are left to the page
+ * writer.
+ * 
  * @Threadsafe, all fields are final
  */
 public class BufferPool {
@@ -37,23 +63,154 @@ public class BufferPool {
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
 
+    /** Pages read ahead of a sequential scan, at most a quarter of the pool. */
+    public static final int DEFAULT_READ_AHEAD_PAGES = 8;
+
+    /** Frames in the ring of a large scan, at most a quarter of the pool. */
+    public static final int DEFAULT_RING_PAGES = 16;
+
+    /** The page writer starts writing when this fraction of the pool is dirty... */
+    private static final double DIRTY_HIGH_WATER = 0.5;
+    /** ...and stops once no more than this fraction is. */
+    private static final double DIRTY_LOW_WATER = 0.25;
+    private static final long PAGE_WRITER_INTERVAL_MILLIS = 100;
+
     private int maxNumPages;
-    private int currentNumPages;
-    private Map<Integer, Map<Integer, Page>> hashPages;
+    private PageTable pageTable;
     private LockManager lockManager;
+    private ReplacementPolicy replacementPolicy;
+    private volatile ReadAhead readAhead;
+
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * A record change made under a record lock, kept so an abort can undo
+     * it without discarding the changes other transactions made to the same
+     * page.
+     */
+    private static class RecordChange {
+        final RecordId rid;
+        final Tuple tuple;
+        final boolean inserted;
+        // the offset of its TUPLE record
+        final long lsn;
+        // set, under the page latch, once an abort has taken it back
+        boolean undone;
+
+        RecordChange(RecordId rid, Tuple tuple, boolean inserted, long lsn) {
+            this.rid = rid;
+            this.tuple = tuple;
+            this.inserted = inserted;
+            this.lsn = lsn;
+        }
+    }
+
+    // guarded by recordChanges itself, never by the pool monitor: changes
+    // are noted while holding a page latch
+    private final Map<TransactionId, List<RecordChange>> recordChanges;
+    private final Map<PageId, Set<TransactionId>> pageWriters;
+
+    // the pages written out while a transaction that changed them was still
+    // running, and the before images of those it did not change record by
+    // record; guarded by the pool monitor
+    private final Map<TransactionId, Set<PageId>> stolenPages;
+    private final Map<PageId, Page> stolenImages;
+    private Thread pageWriter; //protected by pageWriterLock
+    private final Object pageWriterLock = new Object();
+    // a write of the page writer that failed and has not been reported by
+    // a flush or a checkpoint yet; protected by pageWriterLock
+    private IOException writeFailure = null;
+
+    // the pages holding committed changes that are in the log but not on
+    // disk yet, and the transaction that committed them last; guarded by
+    // the pool monitor
+    private final Map<PageId, TransactionId> committedPages;
+
+    // the pages a checkpoint left for the page writer; concurrent, as
+    // checkpoints do not take the pool monitor
+    private final Set<PageId> checkpointPages;
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, using CLOCK
+     * page replacement.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockReplacementPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts them
+     * as chosen by the given replacement policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the policy used to pick eviction victims
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         // some code goes here
         maxNumPages = numPages;
-        currentNumPages = 0;
-        hashPages = new HashMap<>();
+        pageTable = new PageTable();
         lockManager = new LockManager();
+        replacementPolicy = policy;
+        readAhead = new ReadAhead(Math.min(DEFAULT_READ_AHEAD_PAGES, numPages / 4), this::reserveForPrefetch);
+        recordChanges = new HashMap<>();
+        pageWriters = new HashMap<>();
+        stolenPages = new HashMap<>();
+        stolenImages = new HashMap<>();
+        pageWriter = null;
+        committedPages = new HashMap<>();
+        checkpointPages = ConcurrentHashMap.newKeySet();
     }
     
+    /**
+     * Choose how the lock manager handles deadlocks; see
+     * {@link LockManager.DeadlockPolicy}.
+     */
+    public void setDeadlockPolicy(LockManager.DeadlockPolicy policy) {
+        this.lockManager.setDeadlockPolicy(policy);
+    }
+
+    /**
+     * Under DETECTION, search for deadlocks every intervalMillis milliseconds
+     * in the background instead of on every blocked request; 0 restores
+     * per-request checks.
+     */
+    public void setDeadlockDetectionInterval(long intervalMillis) {
+        this.lockManager.setDeadlockDetectionInterval(intervalMillis);
+    }
+
+    /**
+     * Set how many page locks a transaction may hold on one table before
+     * they are escalated to a single table lock.
+     */
+    public void setLockEscalationThreshold(int threshold) {
+        this.lockManager.setEscalationThreshold(threshold);
+    }
+
+    /**
+     * Set how many pages to read ahead of a transaction that scans a heap
+     * file sequentially; 0 turns read-ahead off.
+     */
+    public void setReadAhead(int pages) {
+        this.readAhead = new ReadAhead(pages, this::reserveForPrefetch);
+    }
+
+    /**
+     * Make a ring for a sequential scan of a heap file with the given
+     * number of pages; see {@link BufferRing}.  Scans of up to a quarter of
+     * the pool are cached like any other read and get no ring.  The ring
+     * is at least twice the read-ahead window, so pages read ahead of the
+     * scan are not recycled before the scan gets to them.
+     *
+     * @return the ring, or null if the scan should not use one
+     */
+    public BufferRing newBufferRing(int numPages) {
+        int capacity = Math.max(Math.min(DEFAULT_RING_PAGES, maxNumPages / 4), 2 * readAhead.getWindow());
+        if (capacity == 0 || numPages <= maxNumPages / 4 || 2 * capacity > maxNumPages) {
+            return null;
+        }
+        return new BufferRing(capacity);
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -84,6 +241,19 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page for a scan that reads it through a ring;
+     * if the page has to be read from disk and the pool is full, it takes
+     * the frame of a page the scan has already read.
+     *
+     * @param ring the ring from {@link #newBufferRing}, or null to read the
+     *   page like {@link #getPage(TransactionId, PageId, Permissions)}
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
         throws TransactionAbortedException, DbException {
         // some code goes here
         LockManager.LockType lockType;
@@ -92,82 +262,377 @@ public class BufferPool {
         } else {
             lockType = LockManager.LockType.WRITE_LOCK;
         }
-        acquireLockBlock(pid, tid, lockType);
+        this.lockManager.acquireLock(pid, tid, lockType);
+        Page page = fetchPage(pid, ring);
+        readAhead.pageRequested(tid, pid, ring);
+        return page;
+    }
+
+    /**
+     * Retrieve a page whose records the transaction is about to change one
+     * at a time.  Only an intention (IX) lock is taken on the page, so
+     * several transactions may change different records of it at once;
+     * each record must then be locked with {@link #lockRecord} and changed
+     * while holding the page's monitor, which serves as its latch.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     */
+    public Page getPageForRecordUpdate(TransactionId tid, PageId pid)
+        throws TransactionAbortedException, DbException {
+        this.lockManager.acquireLock(pid, tid, LockManager.LockType.INTENTION_EXCLUSIVE);
+        return fetchPage(pid, null);
+    }
+
+    /**
+     * Lock a record of a page obtained by {@link #getPageForRecordUpdate}
+     * for writing.
+     *
+     * @param wait whether to block until the record is free, or to give up
+     *   at once if another transaction holds it
+     * @return true if the lock is held, false if wait was false and the
+     *   record is locked by somebody else
+     */
+    public boolean lockRecord(TransactionId tid, RecordId rid, boolean wait)
+        throws TransactionAbortedException {
+        return this.lockManager.acquireRecordLock(rid, tid, LockManager.LockType.WRITE_LOCK, wait);
+    }
+
+    // find the page in the pool or read it in; no locks are taken
+    private Page fetchPage(PageId pid, BufferRing ring) throws TransactionAbortedException, DbException {
+        while (true) {
+            PageTable.Frame frame = pageTable.get(pid);
+            if (frame != null) {
+                Page page = awaitFrame(frame);
+                if (page != null) {
+                    if (frame.ring != ring) {
+                        // somebody else wants the page too, keep it
+                        frame.ring = null;
+                    }
+                    replacementPolicy.pageAccessed(pid);
+                    return page;
+                }
+                // the read this frame was waiting for failed, look again
+                continue;
+            }
+            frame = reserveFrame(pid, ring, true);
+            if (frame != null) {
+                return readIntoFrame(frame);
+            }
+        }
+    }
 
-        int tableId = pid.getTableId();
-        int pgId = pid.getPageNumber();
-        Page page = getCachePage(tableId, pgId);
-        if (page != null) {
-            return page;
+    private Page awaitFrame(PageTable.Frame frame) throws TransactionAbortedException {
+        try {
+            return frame.awaitLoaded();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
         }
-        DbFile heapFile = Database.getCatalog().getDatabaseFile(tableId);
-        page = heapFile.readPage(pid);
-        if (page == null) {
+    }
+
+    /**
+     * Publish an empty, pinned frame for the given page, evicting a page
+     * first if the pool is full.  Frames are only ever added while holding
+     * the pool monitor, which keeps the pool within maxNumPages.
+     *
+     * @param ring the ring to add the frame to, which gives up a page first
+     *   if it can, or null
+     * @param steal whether a dirty page may be written out to make room
+     * @return the new frame, or null if somebody else published one first,
+     *   or if only dirty pages could be evicted and steal is false
+     */
+    private synchronized PageTable.Frame reserveFrame(PageId pid, BufferRing ring, boolean steal)
+            throws DbException {
+        if (pageTable.get(pid) != null) {
             return null;
         }
-        putCachePage(page, tableId, pgId);
-        return page;
+        if (pageTable.size() >= maxNumPages && (ring == null || !recycleRingPage(ring))
+                && !evictPage(steal)) {
+            return null;
+        }
+        PageTable.Frame frame = new PageTable.Frame(pid);
+        frame.pin();
+        pageTable.putIfAbsent(frame);
+        if (ring != null) {
+            ring.add(frame);
+        }
+        return frame;
     }
 
-    private void acquireLockBlock(PageId pageId, TransactionId tid, LockManager.LockType type) throws TransactionAbortedException {
-        while (true) {
-            if (this.lockManager.acquireLock(pageId, tid, type)) {
+    /**
+     * Drop the oldest page of a full ring from the pool, if it is clean and
+     * nobody else has used it.
+     *
+     * @return true if a page was dropped
+     */
+    private synchronized boolean recycleRingPage(BufferRing ring) {
+        PageTable.Frame frame = ring.takeOldest();
+        if (frame == null || frame.isPinned() || pageTable.get(frame.pid) != frame) {
+            return false;
+        }
+        Page page = frame.getPage();
+        if (page == null || page.isDirty() != null) {
+            return false;
+        }
+        removeCachePage(frame.pid);
+        return true;
+    }
+
+    /**
+     * Reserve a frame for a page to be read ahead, unless the page is in the
+     * pool already or no clean page can be evicted to make room for it: a
+     * page that may never be used is not worth writing out a dirty one.
+     *
+     * @return the read that fills the frame, or null
+     */
+    private Runnable reserveForPrefetch(PageId pid, BufferRing ring) {
+        if (pageTable.get(pid) != null) {
+            return null;
+        }
+        PageTable.Frame frame;
+        try {
+            frame = reserveFrame(pid, ring, false);
+        } catch (DbException e) {
+            return null;
+        }
+        if (frame == null) {
+            return null;
+        }
+        return () -> readIntoFrame(frame);
+    }
+
+    /**
+     * Read the page of a reserved frame from disk, outside of the pool
+     * monitor, and wake up everybody waiting for it.
+     */
+    private Page readIntoFrame(PageTable.Frame frame) {
+        Page page = null;
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(frame.pid.getTableId());
+            page = file.readPage(frame.pid);
+        } finally {
+            synchronized (this) {
+                if (page == null) {
+                    pageTable.remove(frame);
+                } else if (pageTable.get(frame.pid) == frame) {
+                    replacementPolicy.pageAdded(frame.pid);
+                }
+            }
+            frame.loaded(page);
+            frame.unpin();
+        }
+        return frame.getPage();
+    }
+
+    /**
+     * Install a page returned by a DbFile update, replacing whatever version
+     * of it the pool holds.
+     */
+    private synchronized void putCachePage(Page page) throws DbException {
+        if (page.isDirty() != null) {
+            startPageWriter();
+        }
+        PageTable.Frame frame = pageTable.get(page.getId());
+        if (frame != null) {
+            frame.setPage(page);
+            frame.ring = null;
+            replacementPolicy.pageAccessed(page.getId());
+            return;
+        }
+        if (pageTable.size() >= maxNumPages) {
+            evictPage();
+        }
+        pageTable.putIfAbsent(new PageTable.Frame(page));
+        replacementPolicy.pageAdded(page.getId());
+    }
+
+    // start the background page writer of the database's pool, if needed
+    private void startPageWriter() {
+        synchronized (pageWriterLock) {
+            if (pageWriter != null || Database.getBufferPool() != this) {
                 return;
             }
+            pageWriter = new Thread(this::writeBehind, "page-writer");
+            pageWriter.setDaemon(true);
+            pageWriter.start();
+        }
+    }
+
+    // the page writer; it retires once the database has a new pool
+    private void writeBehind() {
+        while (Database.getBufferPool() == this) {
             try {
-                Thread.sleep(10);
+                Thread.sleep(PAGE_WRITER_INTERVAL_MILLIS);
+                if (Database.getBufferPool() != this) {
+                    // pages of an old pool must not go into the new log
+                    return;
+                }
+                trickleDirtyPages();
+                writeCheckpointPages();
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                return;
+            } catch (IOException e) {
+                synchronized (pageWriterLock) {
+                    writeFailure = e;
+                }
             }
         }
     }
-    private int getCachePageNumber(int tableId) {
-        Map<Integer, Page> tablePages = hashPages.get(tableId);
-        if (tablePages != null) {
-            return tablePages.size();
+
+    // fail with the last write of the page writer that failed, once
+    private void checkPageWriter() throws IOException {
+        IOException failure;
+        synchronized (pageWriterLock) {
+            failure = writeFailure;
+            writeFailure = null;
+        }
+        if (failure != null) {
+            throw new IOException("background page write failed", failure);
         }
-        return 0;
     }
 
-    private Page getCachePage(int tableId, int pageId) {
-        Map<Integer, Page> tablePages = hashPages.get(tableId);
-        if (tablePages != null) {
-            Page page = tablePages.get(pageId);
-            if (page != null) {
-                return page;
+    /**
+     * If more than the high water mark of the pool is dirty, write dirty
+     * pages out until only the low water mark is.  Each page is written
+     * under the pool monitor on its own, so transactions are only held up
+     * for one write at a time.
+     */
+    private void trickleDirtyPages() throws IOException {
+        List<PageId> dirty = new ArrayList<>();
+        for (PageTable.Frame frame : pageTable.frames()) {
+            Page page = frame.getPage();
+            if (page != null && page.isDirty() != null && !frame.isPinned()) {
+                dirty.add(frame.pid);
             }
         }
-        return null;
+        if (dirty.size() <= maxNumPages * DIRTY_HIGH_WATER) {
+            return;
+        }
+        int excess = dirty.size() - (int) (maxNumPages * DIRTY_LOW_WATER);
+        for (int i = 0; i < excess; i++) {
+            flushPage(dirty.get(i));
+        }
     }
-    private void removeCachePage(int tableId, int pageId) {
-        Map<Integer, Page> tablePages = hashPages.get(tableId);
-        if (tablePages != null) {
-            if (tablePages.containsKey(pageId)) {
-                tablePages.remove(pageId);
-                currentNumPages--;
-            }
+
+    /**
+     * Have the page writer write the given pages in the background, one at
+     * a time, so that the log before their changes can be truncated.  Used
+     * by checkpoints, which write no pages themselves; does not take the
+     * pool monitor.
+     *
+     * @throws IOException if a background write failed since the last
+     *   flush or checkpoint; the log is not safe to truncate then
+     */
+    public void writeInBackground(Collection<PageId> pids) throws IOException {
+        checkPageWriter();
+        checkpointPages.addAll(pids);
+        if (!checkpointPages.isEmpty()) {
+            startPageWriter();
+        }
+    }
+
+    private void writeCheckpointPages() throws IOException {
+        for (Iterator<PageId> it = checkpointPages.iterator(); it.hasNext(); ) {
+            PageId pid = it.next();
+            // a page that fails to be written is tried again
+            flushPage(pid);
+            it.remove();
         }
     }
-    private void putCachePage(Page page, int tableId, int pageId) throws DbException {
-        Map<Integer, Page> tablePages = hashPages.get(tableId);
 
-        if (page != null) {
-            if (tablePages == null) {
-                tablePages = new HashMap<>();
-                hashPages.put(tableId, tablePages);
+    private void removeCachePage(PageId pid) {
+        PageTable.Frame frame = pageTable.get(pid);
+        if (frame != null && pageTable.remove(frame)) {
+            replacementPolicy.pageRemoved(pid);
+        }
+        committedPages.remove(pid);
+    }
+
+    /**
+     * Note that tid inserted or deleted a record under a record lock, and
+     * log the change as a TUPLE record of its own.  Must be called while
+     * holding the latch of the record's page, right after the change.
+     *
+     * The page's before image is moved up to the change, so the page-level
+     * records written when the page is committed or flushed never carry the
+     * changes of other transactions sharing the page.
+     */
+    void recordChanged(TransactionId tid, HeapPage page, RecordId rid, Tuple t, boolean inserted)
+            throws DbException, IOException {
+        PageId pid = rid.getPageId();
+        long lsn = Database.getLogFile().logTupleChange(tid, page.getBeforeImage(), page,
+                rid.getTupleNumber(), inserted, inserted ? null : page.serialize(t),
+                LogFile.NO_PREVIOUS_RECORD);
+        page.setBeforeImage();
+        synchronized (recordChanges) {
+            recordChanges.computeIfAbsent(tid, k -> new ArrayList<>())
+                    .add(new RecordChange(rid, t, inserted, lsn));
+            pageWriters.computeIfAbsent(pid, k -> new HashSet<>()).add(tid);
+        }
+    }
+
+    // give the bytes reserved for the records tid deleted back to their
+    // pages; logged with the pages when they are committed
+    private void releaseDeletedRecords(TransactionId tid)
+            throws DbException, TransactionAbortedException {
+        List<RecordChange> changes;
+        synchronized (recordChanges) {
+            changes = new ArrayList<>(recordChanges.getOrDefault(tid, Collections.emptyList()));
+        }
+        for (RecordChange change : changes) {
+            if (change.inserted) {
+                continue;
             }
-            if (tablePages.get(pageId) == null) {
-                if (currentNumPages >= maxNumPages) {
-                    evictPage();
+            PageId pid = change.rid.getPageId();
+            HeapPage page = (HeapPage) fetchPage(pid, null);
+            synchronized (page) {
+                if (page.releaseSlot(change.rid.getTupleNumber())) {
+                    page.markDirty(true, tid);
+                    // larger records may fit now
+                    HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    file.spaceFreed(pid);
                 }
-                if (currentNumPages >= maxNumPages) {
-                    throw new DbException("page cache full");
+            }
+        }
+    }
+
+    // the pages tid changed record by record
+    private Set<PageId> recordPages(TransactionId tid) {
+        Set<PageId> pages = new HashSet<>();
+        synchronized (recordChanges) {
+            for (RecordChange change : recordChanges.getOrDefault(tid, Collections.emptyList())) {
+                pages.add(change.rid.getPageId());
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * @return true if tid changed the given page record by record; the
+     *   pool undoes such changes itself when tid aborts
+     */
+    boolean hasRecordChanges(TransactionId tid, PageId pid) {
+        synchronized (recordChanges) {
+            Set<TransactionId> writers = pageWriters.get(pid);
+            return writers != null && writers.contains(tid);
+        }
+    }
+
+    // drop the record changes of a completed transaction
+    private void forgetRecordChanges(TransactionId tid) {
+        synchronized (recordChanges) {
+            for (RecordChange change : recordChanges.getOrDefault(tid, Collections.emptyList())) {
+                PageId pid = change.rid.getPageId();
+                Set<TransactionId> writers = pageWriters.get(pid);
+                if (writers != null && writers.remove(tid) && writers.isEmpty()) {
+                    pageWriters.remove(pid);
                 }
-                tablePages.put(pageId, page);
-                currentNumPages++;
             }
+            recordChanges.remove(tid);
         }
     }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -191,6 +656,7 @@ public class BufferPool {
     public void transactionComplete(TransactionId tid) {
         // some code goes here
         // not necessary for lab1|lab2
+        this.readAhead.transactionComplete(tid);
         this.lockManager.releaseLock(tid);
     }
 
@@ -204,22 +670,35 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * If the commit record cannot be forced, the commit may or may not
+     * survive a crash, so the transaction keeps its locks, and no other
+     * transaction sees its changes until recovery decides.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws RuntimeException if the commit could not be logged
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
         // not necessary for lab1|lab2
         if (commit) {
             try {
-                flushPages(tid);
-            } catch (IOException e) {
-                e.printStackTrace();
+                // durable once the commit record is forced, which is done
+                // outside the pool monitor and before any lock is released
+                LogFile log = Database.getLogFile();
+                releaseDeletedRecords(tid);
+                if (commitPages(tid) || log.isLive(tid)) {
+                    log.logCommit(tid);
+                }
+            } catch (DbException | TransactionAbortedException | IOException e) {
+                throw new RuntimeException("commit of " + tid + " failed", e);
             }
+            forgetRecordChanges(tid);
         } else {
             discardPages(tid);
         }
+        this.readAhead.transactionComplete(tid);
         this.lockManager.releaseLock(tid);
 
     }
@@ -243,11 +722,11 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
 
-        List<Page> pageList = heapFile.insertTuple(tid, t);
+        List<Page> pageList = file.insertTuple(tid, t);
         for (Page page : pageList) {
-            putCachePage(page, tableId, page.getId().getPageNumber());
+            putCachePage(page);
         }
     }
 
@@ -269,10 +748,10 @@ public class BufferPool {
         // some code goes here
         // not necessary for lab1
         int tableId = t.getRecordId().getPageId().getTableId();
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-        List<Page> pageList = heapFile.deleteTuple(tid, t);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        List<Page> pageList = file.deleteTuple(tid, t);
         for (Page page : pageList) {
-            putCachePage(page, tableId, page.getId().getPageNumber());
+            putCachePage(page);
         }
     }
 
@@ -280,11 +759,41 @@ public class BufferPool {
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      *     break simpledb if running in NO STEAL mode.
+     * @throws IOException also if the page writer failed to write a page
+     *     since the last flush
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
         // not necessary for lab1
+        checkPageWriter();
+        for (PageTable.Frame frame : pageTable.frames()) {
+            flushPage(frame.pid);
+        }
+    }
 
+    /**
+     * Write out the committed versions of the pages that hold commits not
+     * on disk yet, e.g. before the pool is thrown away.  Uncommitted
+     * changes are not written.
+     */
+    public synchronized void flushCommittedPages() throws IOException {
+        checkPageWriter();
+        for (Map.Entry<PageId, TransactionId> entry : new ArrayList<>(committedPages.entrySet())) {
+            PageId pid = entry.getKey();
+            PageTable.Frame frame = pageTable.get(pid);
+            Page page = frame == null ? null : frame.getPage();
+            if (page == null) {
+                continue;
+            }
+            if (entry.getValue().equals(page.isDirty())) {
+                flushPage(pid);
+            } else {
+                // the before image may hold record changes logged since
+                Database.getLogFile().force();
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page.getBeforeImage());
+                Database.getLogFile().pageWritten(pid);
+            }
+        }
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -298,33 +807,223 @@ public class BufferPool {
     public synchronized void discardPage(PageId pid) {
         // some code goes here
         // not necessary for lab1
-        int tableId = pid.getTableId();
-        int pgId = pid.getPageNumber();
-        removeCachePage(tableId, pgId);
+        removeCachePage(pid);
     }
 
-    public synchronized void discardPages(TransactionId tid) {
-        List<PageId> pageIdList = this.lockManager.holdLockPages(tid);
-        for (PageId pageId : pageIdList) {
-            discardPage(pageId);
+    /**
+     * Throw away the changes of an aborting transaction.  Its record changes
+     * are undone one by one, in place, as they are logged record by record;
+     * other pages it has changed are dropped from the pool, and those that
+     * were written out get their before images written back.
+     */
+    public void discardPages(TransactionId tid) {
+        // not under the pool monitor: undoing may have to wait for a page
+        // being read in, which needs the monitor to finish
+        List<RecordChange> changes;
+        synchronized (recordChanges) {
+            changes = new ArrayList<>(recordChanges.getOrDefault(tid, Collections.emptyList()));
         }
+        try {
+            dropUnsharedPages(tid);
+            undoRecordChanges(tid);
+            restoreRecordPages(tid);
+        } catch (DbException | TransactionAbortedException | IOException e) {
+            throw new RuntimeException("undo of " + tid + " failed", e);
+        }
+        for (RecordChange change : changes) {
+            // rolled back inserts leave room the free space map may not know of
+            DbFile file = Database.getCatalog().getDatabaseFile(change.rid.getPageId().getTableId());
+            if (change.inserted && file instanceof HeapFile) {
+                ((HeapFile) file).spaceFreed(change.rid.getPageId());
+            }
+        }
+        forgetRecordChanges(tid);
     }
+
     /**
-     * Flushes a certain page to disk
+     * The part of an abort done under the pool monitor, so no page can be
+     * stolen meanwhile: drop the pages tid changed without record locks
+     * from the pool, and put back the before images of its stolen pages
+     * without record changes and of pages whose committed version is not on
+     * disk yet.
+     */
+    private synchronized void dropUnsharedPages(TransactionId tid) throws IOException {
+        Set<PageId> stolen = stolenPages.getOrDefault(tid, Collections.emptySet());
+        Set<PageId> pageIds = new HashSet<>(dirtiedPages(tid));
+        // whether or not another transaction changed them too, pages
+        // changed record by record are undone in place
+        pageIds.removeAll(recordPages(tid));
+        for (PageId pageId : pageIds) {
+            PageTable.Frame frame = pageTable.get(pageId);
+            Page page = frame == null ? null : frame.getPage();
+            if (page != null && committedPages.containsKey(pageId)) {
+                // the committed version is only in the pool and the log
+                Database.getLogFile().force();
+                Database.getCatalog().getDatabaseFile(pageId.getTableId()).writePage(page.getBeforeImage());
+                Database.getLogFile().pageWritten(pageId);
+            }
+            removeCachePage(pageId);
+        }
+        for (PageId pid : stolen) {
+            Page before = stolenImages.remove(pid);
+            if (before != null) {
+                removeCachePage(pid);
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                Page written = file.readPage(pid);
+                if (!Arrays.equals(written.getPageData(), before.getPageData())) {
+                    // recovery repeats the stolen write, so it has to
+                    // repeat putting the before image back as well
+                    LogFile log = Database.getLogFile();
+                    log.logWrite(tid, written, before);
+                    log.force();
+                    file.writePage(before);
+                    log.pageWritten(pid);
+                }
+            }
+        }
+        stolenPages.remove(tid);
+    }
+
+    /**
+     * Undo, newest first, the record changes of an aborting transaction
+     * that are not undone yet, logging each as the opposite TUPLE record so
+     * recovery never undoes it twice.  Called before the abort record is
+     * logged, and again when the pages are discarded.
+     */
+    void undoRecordChanges(TransactionId tid)
+            throws DbException, TransactionAbortedException, IOException {
+        List<RecordChange> changes;
+        synchronized (recordChanges) {
+            changes = new ArrayList<>(recordChanges.getOrDefault(tid, Collections.emptyList()));
+        }
+        LogFile log = Database.getLogFile();
+        for (int i = changes.size() - 1; i >= 0; i--) {
+            RecordChange change = changes.get(i);
+            PageId pid = change.rid.getPageId();
+            HeapPage page = (HeapPage) fetchPage(pid, null);
+            synchronized (page) {
+                if (change.undone) {
+                    continue;
+                }
+                byte[] deleted = null;
+                if (change.inserted) {
+                    deleted = page.serialize(change.tuple);
+                    Tuple t = new Tuple(page.td);
+                    t.setRecordId(change.rid);
+                    page.deleteTuple(t);
+                } else {
+                    page.insertTuple(change.tuple, change.rid.getTupleNumber());
+                }
+                page.markDirty(true, tid);
+                log.logTupleChange(tid, page.getBeforeImage(), page,
+                        change.rid.getTupleNumber(), !change.inserted, deleted, change.lsn);
+                page.setBeforeImage();
+                change.undone = true;
+            }
+        }
+    }
+
+    // once tid's record changes are undone, leave the pages they were on
+    // dirty under another writer, or write them out
+    private void restoreRecordPages(TransactionId tid)
+            throws DbException, TransactionAbortedException, IOException {
+        for (PageId pid : recordPages(tid)) {
+            TransactionId other = null;
+            synchronized (recordChanges) {
+                for (TransactionId writer : pageWriters.getOrDefault(pid, Collections.emptySet())) {
+                    if (!writer.equals(tid)) {
+                        other = writer;
+                    }
+                }
+            }
+            Page page = fetchPage(pid, null);
+            if (other != null) {
+                // the others' changes still have to reach disk when they commit
+                page.markDirty(true, other);
+            } else {
+                // a commit or a steal may have written our changes out; put
+                // back the committed version
+                flushPage(pid);
+                synchronized (page) {
+                    page.setBeforeImage();
+                }
+            }
+        }
+    }
+
+    /**
+     * The pages a transaction has dirtied.  Pages are found by scanning the
+     * pool rather than through the lock manager, since pages covered by an
+     * escalated table lock have no page lock of their own.
+     */
+    private List<PageId> dirtiedPages(TransactionId tid) {
+        List<PageId> pageIdList = new ArrayList<>();
+        for (PageTable.Frame frame : pageTable.frames()) {
+            Page page = frame.getPage();
+            if (page != null && tid.equals(page.isDirty())) {
+                pageIdList.add(frame.pid);
+            }
+        }
+        return pageIdList;
+    }
+    /**
+     * Flushes a certain page to disk, if it is dirty.  The UPDATE record of
+     * the page is forced to the log first, unless the page has not changed
+     * since a commit logged it.
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
         // not necessary for lab1
-        int tableId = pid.getTableId();
-        int pgId = pid.getPageNumber();
-        HeapPage heapPage = (HeapPage) getCachePage(tableId, pgId);
-        HeapFile heapFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
-        if (heapPage != null) {
-            heapFile.writePage(heapPage);
-            if (heapPage.isDirty() != null) {
-                heapPage.markDirty(false, null);
+        PageTable.Frame frame = pageTable.get(pid);
+        Page page = frame == null ? null : frame.getPage();
+        if (page == null) {
+            return;
+        }
+        frame.pin();
+        try {
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            // record updaters change the page under its latch
+            synchronized (page) {
+                TransactionId dirtier = page.isDirty();
+                if (dirtier == null) {
+                    return;
+                }
+                Page before = page.getBeforeImage();
+                LogFile log = Database.getLogFile();
+                boolean committed = dirtier.equals(committedPages.remove(pid));
+                if (!committed) {
+                    log.logWrite(dirtier, before, page);
+                    // the next record of the page is logged against this one
+                    page.setBeforeImage();
+                }
+                // the commit record may not be forced yet either
+                log.force();
+                file.writePage(page);
+                log.pageWritten(pid);
+                page.markDirty(false, null);
+                pageWritten(pid, committed ? null : dirtier, before);
+            }
+        } finally {
+            frame.unpin();
+        }
+    }
+
+    // note whose uncommitted changes a page just written out may hold;
+    // dirtier is null if the last change to the page was committed
+    private synchronized void pageWritten(PageId pid, TransactionId dirtier, Page before) {
+        Set<TransactionId> writers;
+        synchronized (recordChanges) {
+            writers = new HashSet<>(pageWriters.getOrDefault(pid, Collections.emptySet()));
+        }
+        if (dirtier != null) {
+            if (!writers.contains(dirtier)) {
+                stolenImages.putIfAbsent(pid, before);
             }
+            writers.add(dirtier);
+        }
+        for (TransactionId writer : writers) {
+            stolenPages.computeIfAbsent(writer, k -> new HashSet<>()).add(pid);
         }
     }
 
@@ -333,30 +1032,99 @@ public class BufferPool {
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
         // not necessary for lab1|lab2
-        List<PageId> pageIdList = this.lockManager.holdLockPages(tid);
-        for (PageId pageId : pageIdList) {
+        checkPageWriter();
+        for (PageId pageId : writtenPages(tid)) {
             flushPage(pageId);
         }
     }
 
+    // the pages tid has changed that may still be in the pool
+    private synchronized Set<PageId> writtenPages(TransactionId tid) {
+        Set<PageId> pageIds = new HashSet<>(dirtiedPages(tid));
+        // pages changed record by record may have been dirtied last by
+        // another transaction
+        pageIds.addAll(recordPages(tid));
+        pageIds.addAll(stolenPages.getOrDefault(tid, Collections.emptySet()));
+        return pageIds;
+    }
+
+    /**
+     * Log the after images of the pages a committing transaction has
+     * dirtied, and make their current versions the before images for the
+     * next transaction.  The pages stay dirty in the pool; the log is not
+     * forced here, the commit record that follows does that.
+     *
+     * @return true if the transaction changed any page
+     */
+    private synchronized boolean commitPages(TransactionId tid) throws IOException {
+        Set<PageId> pageIds = writtenPages(tid);
+        LogFile log = Database.getLogFile();
+        for (PageId pageId : pageIds) {
+            PageTable.Frame frame = pageTable.get(pageId);
+            Page page = frame == null ? null : frame.getPage();
+            if (page == null) {
+                continue;
+            }
+            synchronized (page) {
+                if (page.isDirty() != null) {
+                    log.logWrite(tid, page.getBeforeImage(), page);
+                    committedPages.put(pageId, tid);
+                }
+                page.setBeforeImage();
+            }
+        }
+        for (PageId pageId : stolenPages.getOrDefault(tid, Collections.emptySet())) {
+            stolenImages.remove(pageId);
+        }
+        stolenPages.remove(tid);
+        return !pageIds.isEmpty();
+    }
+
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The replacement policy picks which one goes, among the clean pages if
+     * there are any; a dirty page is stolen only when every page is dirty.
      */
     private synchronized  void evictPage() throws DbException {
         // some code goes here
         // not necessary for lab1
-        List<Page> pageList = new ArrayList<>();
-        for (Map<Integer, Page> tablePages : this.hashPages.values()) {
-            for (Page page : tablePages.values()) {
-                pageList.add(page);
-            }
+        evictPage(true);
+    }
+
+    /**
+     * Discards a page from the buffer pool, stealing a dirty page only if
+     * steal is true.
+     *
+     * @return false if steal is false and only dirty pages could be evicted
+     */
+    private synchronized boolean evictPage(boolean steal) throws DbException {
+        PageId victim = replacementPolicy.chooseVictim(pid -> isEvictable(pid, false));
+        if (victim == null && !steal) {
+            return false;
         }
-        for (Page page : pageList) {
-            if (page.isDirty() == null) {
-                discardPage(page.getId());
-            }
+        if (victim == null) {
+            victim = replacementPolicy.chooseVictim(pid -> isEvictable(pid, true));
+        }
+        if (victim == null) {
+            throw new DbException("page cache full, all pages are in use");
+        }
+        try {
+            flushPage(victim);
+        } catch (IOException e) {
+            throw new DbException("could not write out page " + victim + ": " + e.getMessage());
+        }
+        removeCachePage(victim);
+        return true;
+    }
+
+    private boolean isEvictable(PageId pid, boolean steal) {
+        PageTable.Frame frame = pageTable.get(pid);
+        if (frame == null || frame.isPinned()) {
+            return false;
         }
+        Page page = frame.getPage();
+        return page != null && (steal || page.isDirty() == null);
     }
 
 }
@@ -0,0 +1,69 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+
+/**
+ * BufferRing is the bulk read strategy of a large sequential scan: the
+ * pages the scan reads into a full buffer pool take the frames of the pages
+ * it read before them, instead of evicting pages other transactions are
+ * using.  A scan of a table many times the size of the pool thus only ever
+ * occupies a few frames of it.
+ * <p>
+ * A page leaves the ring, and becomes an ordinary page of the pool, when
+ * somebody else reads it or when it is dirtied; only clean pages that
+ * nobody but the scan has touched are recycled.  Rings are handed out by
+ * {@link BufferPool#newBufferRing}, which declines to hand one out for
+ * scans small enough to be worth caching.  A ring belongs to one scan, and
+ * is only used under the monitor of the pool that made it.
+ */
+public class BufferRing {
+    private final int capacity;
+    // oldest first
+    private final ArrayDeque<PageTable.Frame> frames;
+
+    BufferRing(int capacity) {
+        this.capacity = capacity;
+        this.frames = new ArrayDeque<>(capacity);
+    }
+
+    /** @return the number of frames the ring reuses */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Add a frame the scan is reading a page into.  If the ring is full its
+     * oldest frame is let go, as the pool had room to spare for it.
+     */
+    void add(PageTable.Frame frame) {
+        if (frames.size() >= capacity) {
+            release(frames.pollFirst());
+        }
+        frame.ring = this;
+        frames.addLast(frame);
+    }
+
+    /**
+     * Take the oldest frame out of a full ring.
+     *
+     * @return the frame, or null if the ring is not full yet or the frame
+     *   has left the ring already
+     */
+    PageTable.Frame takeOldest() {
+        if (frames.isEmpty() || frames.size() < capacity) {
+            return null;
+        }
+        PageTable.Frame frame = frames.pollFirst();
+        if (frame.ring != this) {
+            return null;
+        }
+        frame.ring = null;
+        return frame;
+    }
+
+    private void release(PageTable.Frame frame) {
+        if (frame.ring == this) {
+            frame.ring = null;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) page replacement.  Every resident page owns a slot
+ * in a fixed ring together with a reference bit.  A hit sets the bit; the
+ * clock hand sweeps the ring, clearing bits as it passes, and stops at the
+ * first evictable page whose bit is already clear.
+ * <p>
+ * Pages enter with their bit clear, so a page that is read once by a large
+ * scan is the first thing the hand finds, while pages that keep being hit
+ * survive the sweep.
+ * <p>
+ * A hit only sets a bit, so {@link #pageAccessed} takes no lock; page
+ * arrival, removal and the sweep itself are serialized on this object.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private final PageId[] ring;
+    private final AtomicIntegerArray referenced;
+    private final Map<PageId, Integer> slots;
+    private final Deque<Integer> freeSlots;
+    private int hand;
+
+    /**
+     * @param numPages the capacity of the buffer pool using this policy
+     */
+    public ClockReplacementPolicy(int numPages) {
+        this.ring = new PageId[numPages];
+        this.referenced = new AtomicIntegerArray(numPages);
+        this.slots = new ConcurrentHashMap<>();
+        this.freeSlots = new ArrayDeque<>();
+        for (int i = 0; i < numPages; i++) {
+            freeSlots.add(i);
+        }
+        this.hand = 0;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (slots.containsKey(pid)) {
+            return;
+        }
+        Integer slot = freeSlots.poll();
+        if (slot == null) {
+            throw new IllegalStateException("clock ring is full");
+        }
+        ring[slot] = pid;
+        referenced.set(slot, 0);
+        slots.put(pid, slot);
+    }
+
+    public void pageAccessed(PageId pid) {
+        // may race with the page leaving; the worst outcome is a spurious
+        // second chance for whatever page takes the slot next
+        Integer slot = slots.get(pid);
+        if (slot != null) {
+            referenced.set(slot, 1);
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slots.remove(pid);
+        if (slot != null) {
+            ring[slot] = null;
+            referenced.set(slot, 0);
+            freeSlots.push(slot);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        // two full turns: the first may only clear reference bits
+        for (int i = 0; i < 2 * ring.length; i++) {
+            int slot = hand;
+            hand = (hand + 1) % ring.length;
+            PageId pid = ring[slot];
+            if (pid == null) {
+                continue;
+            }
+            if (referenced.getAndSet(slot, 0) == 1) {
+                continue;
+            }
+            if (evictable.test(pid)) {
+                return pid;
+            }
+        }
+        return null;
+    }
+}
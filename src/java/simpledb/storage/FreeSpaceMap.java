@@ -0,0 +1,189 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * FreeSpaceMap records, one bit per page, which pages of a HeapFile are
+ * full, so that inserts go straight to a page with room instead of trying
+ * every page from the start of the file.
+ * <p>
+ * The map lives in a side file next to the data file (the data file name
+ * plus ".fsm"): an 8 byte header holding the length of the data file the
+ * map was last written for, followed by the bitmap.  It is only a hint.  A
+ * page wrongly marked as having room costs one wasted visit, and is then
+ * marked full; a map whose header does not match the data file (e.g. the
+ * data file was rewritten by HeapFileEncoder) is ignored and rebuilt as
+ * pages are visited.  Every update writes the single byte it changes.
+ * <p>
+ * A page is only marked full on disk once the page itself has been written
+ * out.  Until then the insert that filled it may be lost in a crash, and
+ * recovery, which only sees pages the log or the data file knows of, could
+ * not clear the bit again; the page would be skipped for good.  Pages
+ * marked as having room are written at once, as they cost at most a visit.
+ * <p>
+ * Pages of variable length records may have room for small records only.
+ * The size of the smallest record such a page was found without room for
+ * is kept in memory, so that records at least that large skip the page
+ * until space is freed on it.
+ *
+ * @see HeapFile#insertTuple
+ */
+class FreeSpaceMap {
+    private static final int HEADER_SIZE = 8;
+
+    private final File mapFile;
+    private final BitSet full;
+    // full in memory, but not marked so on disk until the page is written
+    private final BitSet unwritten;
+    // of pages that are not full, the smallest record found not to fit
+    private final Map<Integer, Integer> noRoomFor;
+    private FileChannel channel;
+    private boolean valid;
+    // every page below this one is full
+    private int firstNotFull;
+
+    /**
+     * Load the map of the given data file, if there is a usable one.
+     */
+    FreeSpaceMap(File dataFile) {
+        this.mapFile = new File(dataFile.getPath() + ".fsm");
+        this.full = new BitSet();
+        this.unwritten = new BitSet();
+        this.noRoomFor = new HashMap<>();
+        this.channel = null;
+        this.valid = false;
+        this.firstNotFull = 0;
+        if (!mapFile.exists()) {
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(mapFile, "r")) {
+            if (raf.length() < HEADER_SIZE || raf.readLong() != dataFile.length()) {
+                return;
+            }
+            byte[] bits = new byte[(int) (raf.length() - HEADER_SIZE)];
+            raf.readFully(bits);
+            full.or(BitSet.valueOf(bits));
+            valid = true;
+            firstNotFull = full.nextClearBit(0);
+        } catch (IOException e) {
+            // unreadable: start over, every page may have room
+            full.clear();
+        }
+    }
+
+    /**
+     * @return the first page at or after from that is not known to be full;
+     *   may be past the end of the file
+     */
+    synchronized int nextCandidate(int from) {
+        return full.nextClearBit(Math.max(from, firstNotFull));
+    }
+
+    /**
+     * @return the first page at or after from that is not known to be full
+     *   or to have no room for a record of the given size; may be past the
+     *   end of the file
+     */
+    synchronized int nextCandidate(int from, int recordSize) {
+        int pageNo = nextCandidate(from);
+        while (noRoomFor.getOrDefault(pageNo, Integer.MAX_VALUE) <= recordSize) {
+            pageNo = nextCandidate(pageNo + 1);
+        }
+        return pageNo;
+    }
+
+    /**
+     * Record that a page has no room for a record of the given size, though
+     * it may have for smaller ones.
+     */
+    synchronized void setNoRoomFor(int pageNo, int recordSize) {
+        noRoomFor.merge(pageNo, recordSize, Math::min);
+    }
+
+    /**
+     * Record whether a page is full.  A full page is only marked so on disk
+     * by {@link #pageWritten}.
+     */
+    synchronized void setFull(int pageNo, boolean isFull, long dataLength) throws IOException {
+        // either way, what is known of smaller records is out of date
+        noRoomFor.remove(pageNo);
+        if (full.get(pageNo) == isFull) {
+            return;
+        }
+        full.set(pageNo, isFull);
+        if (isFull && pageNo == firstNotFull) {
+            firstNotFull = full.nextClearBit(pageNo);
+        } else if (!isFull && pageNo < firstNotFull) {
+            firstNotFull = pageNo;
+        }
+        if (isFull) {
+            unwritten.set(pageNo);
+            return;
+        }
+        unwritten.clear(pageNo);
+        writeByte(pageNo, dataLength);
+    }
+
+    /**
+     * Note that a page was written to the data file, so that whether it is
+     * full may go to disk too.
+     */
+    synchronized void pageWritten(int pageNo, long dataLength) throws IOException {
+        if (unwritten.get(pageNo)) {
+            unwritten.clear(pageNo);
+            writeByte(pageNo, dataLength);
+        }
+    }
+
+    // write the byte holding the bit of a page
+    private void writeByte(int pageNo, long dataLength) throws IOException {
+        open(dataLength);
+        byte[] bits = written().get(pageNo & ~7, (pageNo & ~7) + 8).toByteArray();
+        byte b = bits.length == 0 ? 0 : bits[0];
+        channel.write(ByteBuffer.wrap(new byte[] { b }), HEADER_SIZE + pageNo / 8);
+    }
+
+    // the bits that may be on disk
+    private BitSet written() {
+        BitSet bits = (BitSet) full.clone();
+        bits.andNot(unwritten);
+        return bits;
+    }
+
+    /**
+     * Note that the data file grew, so the map stays valid for it.
+     */
+    synchronized void dataExtended(long dataLength) throws IOException {
+        if (channel != null || mapFile.exists()) {
+            open(dataLength);
+            writeHeader(dataLength);
+        }
+    }
+
+    private void open(long dataLength) throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(mapFile, "rw").getChannel();
+        }
+        if (!valid) {
+            // rewrite a stale or missing map from what is known now
+            channel.truncate(0);
+            writeHeader(dataLength);
+            byte[] bits = written().toByteArray();
+            channel.write(ByteBuffer.wrap(bits), HEADER_SIZE);
+            valid = true;
+        }
+    }
+
+    private void writeHeader(long dataLength) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(dataLength).flip();
+        channel.write(header, 0);
+    }
+}
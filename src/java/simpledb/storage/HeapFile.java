@@ -8,6 +8,10 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 
 /**
@@ -25,7 +29,12 @@ public class HeapFile implements DbFile {
     private int heapFileId;
     private TupleDesc tupleDesc;
     private File file;
-    private RandomAccessFile randomAccessFile;
+    private volatile FileChannel channel;
+    private FreeSpaceMap freeSpaceMap;
+    private final MappedFile mappedFile;
+
+    // one direct buffer per thread, reused for every page it reads or writes
+    private static final ThreadLocal<ByteBuffer> pageBuffer = new ThreadLocal<>();
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -34,17 +43,74 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
+        this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, optionally
+     * reading its pages through a memory mapping of the file instead of
+     * read calls.  Meant for read-mostly tables that fit in the OS page
+     * cache.  Either way a page read into the pool is copied once, from
+     * the mapping or from the read buffer.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            whether to read pages from a memory mapping of f
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
         // some code goes here
         heapFileId = f.getAbsoluteFile().hashCode();
+        mappedFile = memoryMapped ? new MappedFile(f) : null;
         tupleDesc = td;
         file = f;
+        freeSpaceMap = new FreeSpaceMap(f);
         try {
-            randomAccessFile = new RandomAccessFile(this.file, "rw");
-        } catch (FileNotFoundException e) {
+            channel = openChannel();
+        } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * A FileChannel is closed for everybody when a thread blocked in I/O on
+     * it is interrupted.  Other threads then reopen it and carry on.
+     */
+    private FileChannel reopenChannel(FileChannel closed, ClosedChannelException e) throws IOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw e;
+        }
+        synchronized (this) {
+            if (channel == closed) {
+                channel = openChannel();
+            }
+            return channel;
+        }
+    }
+
+    private static ByteBuffer pageBuffer() {
+        ByteBuffer buf = pageBuffer.get();
+        if (buf == null || buf.capacity() != BufferPool.getPageSize()) {
+            buf = ByteBuffer.allocateDirect(BufferPool.getPageSize());
+            pageBuffer.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /**
+     * @return true if pages of this file are read from a memory mapping
+     */
+    public boolean isMemoryMapped() {
+        return mappedFile != null;
+    }
+
     /**
      * Returns the File backing this HeapFile on disk.
      * 
@@ -87,17 +153,39 @@ public class HeapFile implements DbFile {
         if (pid.getPageNumber() >= numPages()) {
             return null;
         }
-        int pos = BufferPool.getPageSize() * pid.getPageNumber();
-        byte[] pageData = new byte[BufferPool.getPageSize()];
-        try {
-            randomAccessFile.seek(pos);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        long pos = (long) BufferPool.getPageSize() * pid.getPageNumber();
         try {
-            randomAccessFile.read(pageData, 0, pageData.length);
-            HeapPage heapPage = new HeapPage((HeapPageId) pid, pageData);
-            return heapPage;
+            if (mappedFile != null) {
+                ByteBuffer mapped = mappedFile.slice(pos, BufferPool.getPageSize());
+                if (mapped != null) {
+                    // copied once, by the page, like a read
+                    return HeapPage.of((HeapPageId) pid, mapped);
+                }
+            }
+            ByteBuffer buf = pageBuffer();
+            // positional reads need no seek, so threads read in parallel
+            FileChannel ch = channel;
+            while (true) {
+                try {
+                    int n = 0;
+                    while (buf.hasRemaining() && n >= 0) {
+                        n = ch.read(buf, pos + buf.position());
+                    }
+                    break;
+                } catch (ClosedChannelException e) {
+                    ch = reopenChannel(ch, e);
+                    buf.clear();
+                }
+            }
+            buf.flip();
+            if (buf.remaining() == BufferPool.getPageSize()) {
+                // copied once, by the page
+                return HeapPage.of((HeapPageId) pid, buf);
+            }
+            // a short last page reads as zeros
+            byte[] pageData = new byte[BufferPool.getPageSize()];
+            buf.get(pageData, 0, buf.remaining());
+            return HeapPage.of((HeapPageId) pid, ByteBuffer.wrap(pageData));
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -108,10 +196,43 @@ public class HeapFile implements DbFile {
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
-        int pos = BufferPool.getPageSize() * page.getId().getPageNumber();
-        byte[] pageData = page.getPageData();
-        randomAccessFile.seek(pos);
-        randomAccessFile.write(pageData, 0, pageData.length);
+        long pos = (long) BufferPool.getPageSize() * page.getId().getPageNumber();
+        ByteBuffer buf = pageBuffer();
+        if (page instanceof HeapPage) {
+            ((HeapPage) page).writePageData(buf);
+        } else {
+            buf.put(page.getPageData());
+        }
+        buf.flip();
+        FileChannel ch = channel;
+        boolean grows;
+        while (true) {
+            try {
+                grows = pos + buf.limit() > ch.size();
+                while (buf.hasRemaining()) {
+                    ch.write(buf, pos + buf.position());
+                }
+                break;
+            } catch (ClosedChannelException e) {
+                ch = reopenChannel(ch, e);
+                buf.rewind();
+            }
+        }
+        if (grows) {
+            freeSpaceMap.dataExtended(length());
+        }
+        freeSpaceMap.pageWritten(page.getId().getPageNumber(), length());
+    }
+
+    // the length of the data file in bytes
+    private long length() {
+        FileChannel ch = channel;
+        try {
+            return ch.size();
+        } catch (IOException e) {
+            // closed by an interrupted reader; the file itself can tell
+            return file.length();
+        }
     }
 
     /**
@@ -119,7 +240,7 @@ public class HeapFile implements DbFile {
      */
     public int numPages() {
         // some code goes here
-        return (int) (file.length() / BufferPool.getPageSize());
+        return (int) (length() / BufferPool.getPageSize());
     }
 
     // see DbFile.java for javadocs
@@ -127,39 +248,106 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        // pages are only intention locked and the slot itself is locked, so
+        // concurrent inserters share pages instead of queueing for them
+        BufferPool bufferPool = Database.getBufferPool();
         List<Page> result = new ArrayList<>();
-        HeapPage page = null;
-        int i = 0;
+        // slotted pages may have room for records smaller than t only
+        int size = SlottedHeapPage.isSlotted(tupleDesc) ? HeapPage.serialize(tupleDesc, t).length : 0;
+        int i = freeSpaceMap.nextCandidate(0, size);
         while (true) {
-            PageId pageId = new HeapPageId(this.getId(), i);
-            page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+            HeapPageId pageId = new HeapPageId(this.getId(), i);
+            boolean locked = bufferPool.holdsLock(tid, pageId);
+            HeapPage page = (HeapPage) bufferPool.getPageForRecordUpdate(tid, pageId);
             if (page == null) {
-                page = new HeapPage((HeapPageId) pageId, HeapPage.createEmptyPageData());
-                this.writePage(page);
-                page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
+                appendEmptyPage(pageId);
+                page = (HeapPage) bufferPool.getPageForRecordUpdate(tid, pageId);
             }
-            if (page.getNumEmptySlots() > 0) {
-                break;
+            if (insertIntoPage(tid, page, t, size)) {
+                result.add(page);
+                return result;
             }
-            page = null;
-            i++;
+            if (!locked) {
+                // nothing changed here, so the page need not stay locked
+                bufferPool.unsafeReleasePage(tid, pageId);
+            }
+            i = freeSpaceMap.nextCandidate(i + 1, size);
+        }
+    }
+
+    // put t into the first free slot of the page that no other transaction
+    // has locked (a slot freed by an uncommitted delete stays locked)
+    private boolean insertIntoPage(TransactionId tid, HeapPage page, Tuple t, int size)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bufferPool = Database.getBufferPool();
+        int pageNo = page.getId().getPageNumber();
+        synchronized (page) {
+            for (int slot = page.nextEmptySlot(0); slot >= 0; slot = page.nextEmptySlot(slot + 1)) {
+                if (!page.hasRoomFor(t, slot)) {
+                    // a slotted page with room for smaller tuples only
+                    freeSpaceMap.setNoRoomFor(pageNo, size);
+                    break;
+                }
+                RecordId rid = new RecordId(page.getId(), slot);
+                if (bufferPool.lockRecord(tid, rid, false)) {
+                    page.insertTuple(t, slot);
+                    page.markDirty(true, tid);
+                    bufferPool.recordChanged(tid, page, rid, t, true);
+                    if (page.nextEmptySlot(0) < 0) {
+                        freeSpaceMap.setFull(pageNo, true, length());
+                    }
+                    return true;
+                }
+            }
+            if (page.nextEmptySlot(0) < 0) {
+                freeSpaceMap.setFull(pageNo, true, length());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Note that a slot of the given page may have become free, e.g. because
+     * an insert into it was rolled back.
+     */
+    void spaceFreed(PageId pid) {
+        try {
+            freeSpaceMap.setFull(pid.getPageNumber(), false, length());
+        } catch (IOException e) {
+            // only a hint; the page is found again once the map is rebuilt
+            e.printStackTrace();
+        }
+    }
+
+    // extend the file by an empty page, unless somebody already did
+    private synchronized void appendEmptyPage(HeapPageId pageId) throws IOException {
+        if (pageId.getPageNumber() >= numPages()) {
+            writePage(new HeapPage(pageId, HeapPage.createEmptyPageData()));
         }
-        page.insertTuple(t);
-        page.markDirty(true, tid);
-        result.add(page);
-        return result;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
-            TransactionAbortedException {
+            IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        BufferPool bufferPool = Database.getBufferPool();
         ArrayList<Page> pages = new ArrayList<>();
-        HeapPageId pageId = (HeapPageId) t.getRecordId().getPageId();
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-        page.deleteTuple(t);
-        page.markDirty(true, tid);
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId()) {
+            throw new DbException("tuple is not in this table");
+        }
+        bufferPool.getPageForRecordUpdate(tid, rid.getPageId());
+        bufferPool.lockRecord(tid, rid, true);
+        // the page may have left the pool while waiting for the record
+        HeapPage page = (HeapPage) bufferPool.getPageForRecordUpdate(tid, rid.getPageId());
+        synchronized (page) {
+            // the record's bytes stay reserved for an undo until tid commits
+            page.deleteTupleReserved(t);
+            page.markDirty(true, tid);
+            bufferPool.recordChanged(tid, page, rid, t, false);
+            spaceFreed(rid.getPageId());
+        }
         pages.add(page);
         return pages;
     }
@@ -171,20 +359,22 @@ public class HeapFile implements DbFile {
         private Iterator<Tuple> currentTupleIterator;
         private BufferPool bufferPool;
         private TransactionId transactionId;
+        private BufferRing ring;
 
-        public HeapFileIterator(TransactionId tid, int pages, int id) {
+        public HeapFileIterator(TransactionId tid, int pages, int id, boolean bulkRead) {
             this.numPages = pages;
             this.tableId = id;
             this.currentPageNo = 0;
             this.currentTupleIterator = null;
             this.transactionId = tid;
+            this.ring = bulkRead ? Database.getBufferPool().newBufferRing(pages) : null;
         }
 
         public void updateTupleIterator() throws TransactionAbortedException, DbException {
             if (currentPageNo < numPages) {
                 HeapPageId pid = new HeapPageId(this.tableId, currentPageNo++);
                 HeapPage page = null;
-                page = (HeapPage) Database.getBufferPool().getPage(this.transactionId, pid, Permissions.READ_ONLY);
+                page = (HeapPage) Database.getBufferPool().getPage(this.transactionId, pid, Permissions.READ_ONLY, this.ring);
                 currentTupleIterator = page.iterator();
             }
         }
@@ -237,7 +427,18 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid, this.numPages(), this.getId());
+        return iterator(tid, false);
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile.
+     *
+     * @param bulkRead whether the iterator reads the whole file once, in
+     *   order, so a large file should be read through a {@link BufferRing}
+     *   rather than pushing everything else out of the buffer pool
+     */
+    public DbFileIterator iterator(TransactionId tid, boolean bulkRead) {
+        return new HeapFileIterator(tid, this.numPages(), this.getId(), bulkRead);
     }
 
 }
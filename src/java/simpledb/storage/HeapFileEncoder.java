@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.text.ParseException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -93,6 +95,13 @@ public class HeapFileEncoder {
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
 
+      for (Type type : typeAr) {
+          if (type.isVariableLength()) {
+              convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
+
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
           nrecbytes += typeAr[i].getLen();
@@ -158,6 +167,14 @@ public class HeapFileEncoder {
                 while (overflow-- > 0)
                     pageStream.write((byte)0);
             }
+            else {
+                try {
+                    typeAr[fieldNo].parse(s).serialize(pageStream);
+                } catch (ParseException e) {
+                    System.out.println ("BAD LINE : " + s);
+                    pageStream.write(new byte[typeAr[fieldNo].getLen()]);
+                }
+            }
             curpos = 0;
             if (c == '\n')
                 fieldNo = 0;
@@ -224,4 +241,63 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /**
+   * Convert the specified input text file into slotted pages, the format of
+   * tables with variable length fields.
+   *
+   * @see SlottedHeapPage
+   * @see #convert(File, File, int, int, Type[], char)
+   */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      byte[] page = new byte[npagebytes];
+      boolean pending = false;
+      int npages = 0;
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+          ByteArrayOutputStream recordBAOS = new ByteArrayOutputStream();
+          DataOutputStream recordStream = new DataOutputStream(recordBAOS);
+          for (int i = 0; i < numFields; i++) {
+              String s = i < values.length ? values[i].trim() : "";
+              if (typeAr[i] == Type.INT_TYPE) {
+                  int value = 0;
+                  try {
+                      value = Integer.parseInt(s);
+                  } catch (NumberFormatException e) {
+                      System.out.println ("BAD LINE : " + s);
+                  }
+                  recordStream.writeInt(value);
+              } else {
+                  try {
+                      typeAr[i].parse(s).serialize(recordStream);
+                  } catch (ParseException e) {
+                      System.out.println ("BAD LINE : " + s);
+                      recordStream.write(new byte[typeAr[i].getLen()]);
+                  }
+              }
+          }
+          recordStream.flush();
+          byte[] record = recordBAOS.toByteArray();
+          if (!SlottedHeapPage.appendRecord(page, record)) {
+              os.write(page);
+              npages++;
+              page = new byte[npagebytes];
+              if (!SlottedHeapPage.appendRecord(page, record))
+                  throw new IOException("record of " + record.length + " bytes does not fit a page");
+          }
+          pending = true;
+      }
+      // as above, an empty file still gets one empty page
+      if (pending || npages == 0)
+          os.write(page);
+      br.close();
+      os.close();
+  }
 }
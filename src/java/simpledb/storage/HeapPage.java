@@ -4,29 +4,40 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * Tables with variable length fields use the SlottedHeapPage variant.
  *
  * @see HeapFile
  * @see BufferPool
+ * @see SlottedHeapPage
  *
  */
 public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
-    final byte[] header;
+    // the page as stored on disk: the header bytes, then the slots
+    final byte[] data;
+    final int headerSize;
+    // tuples handed out or inserted, by slot; made on first use
     final Tuple[] tuples;
     final int numSlots;
+    // offset of each field within a slot
+    private final int[] fieldOffsets;
 
+    // the page before it was modified, or null if it has not been since
+    // the before image was last set; copied on the first change
     byte[] oldData;
-    private final Byte oldDataLock= (byte) 0;
+    private final Object oldDataLock = new Object();
 
     private TransactionId lastDirtyTid;
     /**
@@ -46,33 +57,64 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and the limit
+     * of a buffer, e.g. a slice of a memory mapped file.  The bytes are
+     * copied once and the buffer is not kept.  Tuples are not parsed here:
+     * the fields of a tuple are decoded from the page bytes when they are
+     * first asked for.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    private HeapPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
+        this(id, td, data, getNumTuples(td), getHeaderSize(td));
+    }
+
+    /**
+     * Create a page with the given number of slots after a header of the
+     * given size; the layout of both is up to subclasses.  Bytes missing at
+     * the end of the buffer read as zeros.
+     */
+    HeapPage(HeapPageId id, TupleDesc td, ByteBuffer data, int numSlots, int headerSize) {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.td = td;
+        this.numSlots = numSlots;
+        this.headerSize = headerSize;
+        ByteBuffer buf = data.duplicate();
+        this.data = new byte[BufferPool.getPageSize()];
+        buf.get(this.data, 0, Math.min(buf.remaining(), this.data.length));
+
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++) {
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
         }
-        dis.close();
+        tuples = new Tuple[numSlots];
+    }
 
-        setBeforeImage();
+    /**
+     * @return a page of the layout the tuples of the table need: a
+     *         SlottedHeapPage if they have variable length fields, a
+     *         HeapPage otherwise
+     */
+    public static HeapPage of(HeapPageId id, ByteBuffer data) throws IOException {
+        TupleDesc td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (SlottedHeapPage.isSlotted(td)) {
+            return new SlottedHeapPage(id, data);
+        }
+        return new HeapPage(id, data, td);
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
-    private int getNumTuples() {        
+    private static int getNumTuples(TupleDesc td) {
         // some code goes here
         return  (BufferPool.getPageSize()*8) / (td.getSize() * 8 + 1);
     }
@@ -81,9 +123,9 @@ public class HeapPage implements Page {
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      * @return the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      */
-    private int getHeaderSize() {
+    private static int getHeaderSize(TupleDesc td) {
         // some code goes here
-        return (int) Math.ceil(getNumTuples() / 8.0);
+        return (int) Math.ceil(getNumTuples(td) / 8.0);
                  
     }
     
@@ -96,7 +138,8 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            // unchanged pages are their own before image
+            return of(pid, ByteBuffer.wrap(oldDataRef != null ? oldDataRef : data));
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -108,7 +151,21 @@ public class HeapPage implements Page {
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = null;
+        }
+    }
+
+    /**
+     * Keep a copy of the page as it is now as the before image, unless it
+     * has one already.  Called before the first change since the before
+     * image was set, so that pages that are only read are never copied.
+     */
+    void copyOnWrite() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null) {
+                oldData = data.clone();
+            }
         }
     }
 
@@ -121,38 +178,97 @@ public class HeapPage implements Page {
         return this.pid;
     }
 
+    /** @return the offset of the given slot in the page bytes */
+    int slotOffset(int slotId) {
+        return headerSize + slotId * td.getSize();
+    }
+
+    /** @return the offset of each field within the given slot */
+    int[] fieldOffsets(int slotId) {
+        return fieldOffsets;
+    }
+
     /**
-     * Suck up tuples from the source file.
+     * @return the tuple in the given slot, which must be in use, making it
+     *         if no one has asked for it yet
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    private Tuple tupleAt(int slotId) {
+        Tuple t = tuples[slotId];
+        if (t == null) {
+            t = new PageTuple(this, slotId);
+            tuples[slotId] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * @return the fields of a tuple in the format of the columns they go in
+     * @throws DbException if the tuple is missing a field
+     */
+    byte[] serialize(Tuple t) throws DbException {
+        return serialize(td, t);
+    }
+
+    /**
+     * @return the fields of a tuple in the format of the given columns
+     * @throws DbException if the tuple is missing a field
+     */
+    static byte[] serialize(TupleDesc td, Tuple t) throws DbException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                Field f = t.getField(j);
+                if (f == null) {
+                    throw new DbException("tuple has no field " + j);
+                }
+                Type type = td.getFieldType(j);
+                if (f instanceof StringField && f.getType() != type) {
+                    // a string made for a column of the other string type
+                    String value = ((StringField) f).getValue();
+                    f = type == Type.VARCHAR_TYPE ? new VarcharField(value, Type.STRING_LEN)
+                            : new StringField(value, Type.STRING_LEN);
+                }
+                f.serialize(dos);
             }
-        } catch (java.text.ParseException e) {
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
             e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
         }
+        return baos.toByteArray();
+    }
 
-        return t;
+    /**
+     * Write the fields of a tuple into a slot, which is empty, and mark it
+     * used.
+     * @throws DbException if the tuple does not fit the slot
+     */
+    void writeTuple(Tuple t, int slotId) throws DbException {
+        byte[] bytes = serialize(t);
+        if (bytes.length != td.getSize()) {
+            throw new DbException("tuple does not match the table's tupledesc");
+        }
+        System.arraycopy(bytes, 0, data, slotOffset(slotId), td.getSize());
+        markSlotUsed(slotId, true);
+    }
+
+    /** Clear a slot that is in use and mark it empty. */
+    void clearSlot(int slotId) {
+        Arrays.fill(data, slotOffset(slotId), slotOffset(slotId + 1), (byte) 0);
+        markSlotUsed(slotId, false);
+    }
+
+    /**
+     * Decode all fields of the tuples handed out, so that they do not change
+     * when records are moved or cleared.
+     */
+    void detachTuples() {
+        for (Tuple t : tuples) {
+            if (t instanceof PageTuple) {
+                ((PageTuple) t).detach();
+            }
+        }
     }
 
     /**
@@ -167,64 +283,15 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return data.clone();
+    }
 
-        return baos.toByteArray();
+    /**
+     * Put the bytes of this page into a buffer, e.g. one reused for every
+     * page write, without making a copy of them first.
+     */
+    void writePageData(ByteBuffer buf) {
+        buf.put(data);
     }
 
     /**
@@ -253,14 +320,42 @@ public class HeapPage implements Page {
         // not necessary for lab1
         RecordId recordId = t.getRecordId();
         int slotId = recordId.getTupleNumber();
-        if (recordId.getPageId() == this.pid && isSlotUsed(slotId)) {
+        if (recordId.getPageId().equals(this.pid) && isSlotUsed(slotId)) {
+            // whoever holds the tuple keeps its fields, e.g. to undo this
+            if (tuples[slotId] instanceof PageTuple) {
+                ((PageTuple) tuples[slotId]).detach();
+            }
+            if (t instanceof PageTuple) {
+                ((PageTuple) t).detach();
+            }
+            copyOnWrite();
             this.tuples[slotId] = null;
-            markSlotUsed(slotId, false);
+            clearSlot(slotId);
         } else {
             throw new DbException("delete tuple not exist");
         }
     }
 
+    /**
+     * Delete a tuple whose delete may still be undone.  Pages whose records
+     * vary in length keep the bytes of its record reserved until
+     * {@link #releaseSlot} is called, so that putting it back always fits;
+     * fixed length slots need no reserving.
+     * @throws DbException as {@link #deleteTuple(Tuple)}
+     */
+    void deleteTupleReserved(Tuple t) throws DbException {
+        deleteTuple(t);
+    }
+
+    /**
+     * Give the bytes a deleted record kept reserved back to the page, once
+     * its delete has committed.
+     * @return true if the page changed
+     */
+    boolean releaseSlot(int slotId) {
+        return false;
+    }
+
     /**
      * Adds the specified tuple to the page;  the tuple should be updated to reflect
      *  that it is now stored on this page.
@@ -271,16 +366,73 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
-        for (int i=0; i<tuples.length; i++) {
+        int slot = nextEmptySlot(0);
+        if (slot < 0) {
+            throw new DbException("page is full");
+        }
+        insertTuple(t, slot);
+    }
+
+    /**
+     * Adds the specified tuple to the given slot of the page, which must be
+     * empty.  Used when the slot has been chosen (and locked) by the caller.
+     * @throws DbException if the slot is in use.
+     * @param t The tuple to add.
+     * @param slot The slot to put it in.
+     */
+    public void insertTuple(Tuple t, int slot) throws DbException {
+        if (slot < 0 || slot >= numSlots || isSlotUsed(slot)) {
+            throw new DbException("slot " + slot + " is not free");
+        }
+        copyOnWrite();
+        writeTuple(t, slot);
+        t.setRecordId(new RecordId(pid, slot));
+        tuples[slot] = t;
+    }
+
+    /**
+     * Take back a logged tuple change: empty the slot of an insert, or put
+     * a deleted tuple, given as the bytes {@link #serialize} made of it,
+     * back into its slot.  Used to undo TUPLE log records.
+     * @throws DbException if the slot is not as the change left it
+     */
+    void undoTupleChange(int slot, boolean inserted, byte[] tuple) throws DbException {
+        if (inserted) {
+            Tuple t = new Tuple(td);
+            t.setRecordId(new RecordId(pid, slot));
+            deleteTuple(t);
+            return;
+        }
+        ByteBuffer buf = ByteBuffer.wrap(tuple);
+        Tuple t = new Tuple(td);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                t.setField(j, td.getFieldType(j).parse(buf));
+            }
+        } catch (java.text.ParseException e) {
+            throw new DbException("cannot parse deleted tuple: " + e.getMessage());
+        }
+        insertTuple(t, slot);
+    }
+
+    /**
+     * @return the first empty slot at or after from, or -1 if there is none
+     */
+    public int nextEmptySlot(int from) {
+        for (int i = from; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
-                RecordId rid = new RecordId(pid, i);
-                t.setRecordId(rid);
-                tuples[i] = t;
-                markSlotUsed(i, true);
-                return;
+                return i;
             }
         }
-        throw new DbException("page is full");
+        return -1;
+    }
+
+    /**
+     * @return true if the tuple fits in the given empty slot, which it
+     *         always does on pages of fixed size slots
+     */
+    public boolean hasRoomFor(Tuple t, int slot) {
+        return true;
     }
 
     /**
@@ -291,6 +443,7 @@ public class HeapPage implements Page {
         // some code goes here
 	// not necessary for lab1
         if (dirty) {
+            copyOnWrite();
             this.lastDirtyTid = tid;
         } else {
             this.lastDirtyTid = null;
@@ -312,7 +465,7 @@ public class HeapPage implements Page {
     public int getNumEmptySlots() {
         // some code goes here
         int emptyNum = 0;
-        for (int i = 0; i < getNumTuples(); i++) {
+        for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
                 emptyNum++;
             }
@@ -327,7 +480,7 @@ public class HeapPage implements Page {
         // some code goes here
         int byteIndex = i / 8;
         int posIndex = i % 8;
-        byte target = this.header[byteIndex];
+        byte target = this.data[byteIndex];
         return (byte) (target << (7 - posIndex)) < 0;
     }
 
@@ -339,13 +492,13 @@ public class HeapPage implements Page {
         // not necessary for lab1
         int byteIndex = i / 8;
         int posIndex = i % 8;
-        byte target = this.header[byteIndex];
+        byte target = this.data[byteIndex];
         if (value) {
             target = (byte) ((0x1 << posIndex) | target);
         } else {
             target = (byte) (~(0x1 << posIndex) & target);
         }
-        this.header[byteIndex] = target;
+        this.data[byteIndex] = target;
     }
 
     private class TupleIterator implements Iterator<Tuple> {
@@ -358,11 +511,18 @@ public class HeapPage implements Page {
         }
         @Override
         public boolean hasNext() {
-            return point < len && isSlotUsed(point);
+            // deletes and concurrent inserts leave holes between used slots
+            while (point < len && !isSlotUsed(point)) {
+                point++;
+            }
+            return point < len;
         }
         @Override
         public Tuple next() {
-            return tuples[point++];
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return tupleAt(point++);
         }
     }
     /**
@@ -374,5 +534,64 @@ public class HeapPage implements Page {
         return new TupleIterator();
     }
 
+    /**
+     * A tuple of a HeapPage whose fields are decoded from the page bytes
+     * by offset the first time they are asked for, so that a scan that
+     * looks at one column, or a filter that drops the row, decodes only
+     * what it uses.
+     */
+    private static class PageTuple extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Field[] fields;
+        private final int[] fieldOffsets;
+        private final int slotOffset;
+        // null once every field is decoded
+        private byte[] data;
+
+        PageTuple(HeapPage page, int slotId) {
+            super(page.td);
+            this.fields = new Field[page.td.numFields()];
+            this.fieldOffsets = page.fieldOffsets(slotId);
+            this.slotOffset = page.slotOffset(slotId);
+            this.data = page.data;
+            setRecordId(new RecordId(page.pid, slotId));
+        }
+
+        @Override
+        public Field getField(int i) {
+            if (i < 0 || i >= fields.length) {
+                return null;
+            }
+            Field f = fields[i];
+            byte[] d = data;
+            if (f == null && d != null) {
+                Type type = getTupleDesc().getFieldType(i);
+                try {
+                    int offset = slotOffset + fieldOffsets[i];
+                    f = type.parse(ByteBuffer.wrap(d, offset, d.length - offset));
+                } catch (java.text.ParseException e) {
+                    e.printStackTrace();
+                    throw new NoSuchElementException("parsing error!");
+                }
+                fields[i] = f;
+            }
+            return f;
+        }
+
+        @Override
+        public void setField(int i, Field f) {
+            fields[i] = f;
+        }
+
+        /** Decode all fields, so that the tuple outlives its slot. */
+        void detach() {
+            for (int i = 0; i < fields.length; i++) {
+                getField(i);
+            }
+            data = null;
+        }
+    }
 }
 
@@ -1,8 +1,5 @@
 package simpledb.storage;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /** Unique identifier for HeapPage objects. */
 public class HeapPageId implements PageId {
 
@@ -44,10 +41,9 @@ public class HeapPageId implements PageId {
      */
     public int hashCode() {
         // some code goes here
-        Map<Integer, Integer> hash = new HashMap<>();
-        hash.put(tableId, pgNo);
-        return hash.hashCode();
-        //throw new UnsupportedOperationException("implement this");
+        // same value a one-entry Map(tableId -> pgNo) hashes to, without
+        // allocating one on every buffer pool lookup
+        return tableId ^ pgNo;
     }
 
     /**
@@ -6,281 +6,682 @@ import simpledb.transaction.TransactionId;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * LockManager keeps the locks of BufferPool.  Locks are hierarchical: a
+ * transaction locks a page by first taking an intention lock on its table
+ * (IS to read, IX to write) and then the page lock itself, and it locks a
+ * record under an intention lock on the page.  A table or page lock in S,
+ * SIX or X mode covers the level below it, so no finer locks are taken
+ * under it.  Once a transaction holds more than the escalation threshold of
+ * page locks on one table, they are traded for a single S or X table lock
+ * whenever that can be granted without waiting.
+ * <p>
+ * Transactions that cannot get a lock right away are queued on the lock and
+ * park until a release hands the lock to them; requests are granted in FIFO
+ * order, except that a holder upgrading its mode goes to the front of the
+ * queue.
+ * <p>
+ * How deadlocks are dealt with is chosen by {@link DeadlockPolicy}.  Under
+ * DETECTION (the default) a request that would close a cycle in the
+ * wait-for graph is refused with TransactionAbortedException instead of
+ * being queued.  WAIT_DIE and WOUND_WAIT prevent deadlocks by comparing
+ * transaction ages (a smaller TransactionId is older) and keep no graph.
+ */
 public class LockManager {
-    private Map<PageId, Lock> lockMap;
-    private Map<TransactionId, HashSet<PageId>> mapTidPages;
-    private List<List<TransactionId>> transactionWaitGraph;
-    public  enum LockType {
-        READ_LOCK, WRITE_LOCK
-    }
+    /** Default number of page locks on one table after which they escalate. */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 256;
 
-    private class Lock {
-        public LockType lockType;
-        public HashSet<TransactionId> transactionIdHashSet;
-        public Lock(LockType type) {
-            this.lockType = type;
-            this.transactionIdHashSet = new HashSet<>();
-        }
-        public void addTransactionId(TransactionId tid) {
-            if (!this.transactionIdHashSet.contains(tid)) {
-                this.transactionIdHashSet.add(tid);
+    private Map<Object, Lock> lockMap;
+    private Map<TransactionId, HashSet<Object>> mapTidLocks;
+    private Map<TransactionId, Map<Integer, int[]>> mapTidPageCounts;
+    private Map<TransactionId, List<LockRequest>> mapTidRequests;
+    private WaitForGraph transactionWaitGraph;
+    private DeadlockPolicy deadlockPolicy;
+    private Set<TransactionId> woundedTids;
+    private long detectionIntervalMillis;
+    private Thread deadlockDetector;
+    private int escalationThreshold;
+
+    /**
+     * Lock modes.  READ_LOCK and WRITE_LOCK are the S and X modes; the
+     * intention modes are only meaningful on tables and pages.
+     */
+    public enum LockType {
+        READ_LOCK, WRITE_LOCK, INTENTION_SHARED, INTENTION_EXCLUSIVE, SHARED_INTENTION_EXCLUSIVE;
+
+        // rows and columns in declaration order: S, X, IS, IX, SIX
+        private static final boolean[][] COMPATIBLE = {
+                {true,  false, true,  false, false},
+                {false, false, false, false, false},
+                {true,  false, true,  true,  true },
+                {false, false, true,  true,  false},
+                {false, false, true,  false, false},
+        };
+
+        /** @return true if one transaction may hold this mode while another holds other */
+        public boolean isCompatibleWith(LockType other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /** @return the weakest mode at least as strong as both this and other */
+        public LockType combine(LockType other) {
+            if (this == other) {
+                return this;
+            }
+            if (this == WRITE_LOCK || other == WRITE_LOCK) {
+                return WRITE_LOCK;
+            }
+            if (this == INTENTION_SHARED) {
+                return other;
+            }
+            if (other == INTENTION_SHARED) {
+                return this;
             }
+            // any two of S, IX and SIX
+            return SHARED_INTENTION_EXCLUSIVE;
         }
-        public void deleteTransactionId(TransactionId tid) {
-            this.transactionIdHashSet.remove(tid);
+
+        /** @return true if holding this mode on a table or page implicitly grants type below it */
+        public boolean coversChildren(LockType type) {
+            if (this == WRITE_LOCK) {
+                return true;
+            }
+            return (this == READ_LOCK || this == SHARED_INTENTION_EXCLUSIVE)
+                    && (type == READ_LOCK || type == INTENTION_SHARED);
+        }
+
+        /** @return true if this mode lets its holder change what it locks, or things below it */
+        public boolean isExclusive() {
+            return this == WRITE_LOCK || this == INTENTION_EXCLUSIVE || this == SHARED_INTENTION_EXCLUSIVE;
         }
-        public boolean transactionIdExist(TransactionId tid) {
-            return this.transactionIdHashSet.contains(tid);
+
+        /** @return the intention mode to hold on the parent before taking this mode */
+        public LockType intention() {
+            return this == READ_LOCK || this == INTENTION_SHARED ? INTENTION_SHARED : INTENTION_EXCLUSIVE;
         }
     }
 
-    public LockManager() {
-        this.lockMap = new ConcurrentHashMap<>();
-        this.mapTidPages = new ConcurrentHashMap<>();
-        this.transactionWaitGraph = new ArrayList<>();
+    public enum DeadlockPolicy {
+        /** keep a wait-for graph and refuse requests that would deadlock */
+        DETECTION,
+        /** older requesters wait for younger ones, younger requesters abort */
+        WAIT_DIE,
+        /** older requesters abort (wound) younger ones, younger requesters wait */
+        WOUND_WAIT
     }
 
-    private void transactionWaitGraphAdd(PageId pageId, TransactionId tid) throws TransactionAbortedException {
-        Lock lock = this.lockMap.get(pageId);
-        if (lock == null) {
-            return;
+    private enum RequestState {
+        WAITING, GRANTED, ABORTED
+    }
+
+    /** The lock key of a whole table. */
+    private static final class TableKey {
+        private final int tableId;
+
+        public TableKey(int tableId) {
+            this.tableId = tableId;
         }
-        List<TransactionId> nodes = new ArrayList<>();
-        List<TransactionId> nodeList = null;
-        for (int i=0;i<this.transactionWaitGraph.size();i++) {
-            nodeList = this.transactionWaitGraph.get(i);
-            TransactionId node = nodeList.get(0);
-            nodes.add(node);
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof TableKey && ((TableKey) o).tableId == tableId;
         }
 
-        nodeList = null;
-        for (int i=0;i<this.transactionWaitGraph.size();i++) {
-            nodeList = this.transactionWaitGraph.get(i);
-            TransactionId node = nodeList.get(0);
-            if (tid.equals(node)) {
-                break;
-            }
+        @Override
+        public int hashCode() {
+            return tableId;
         }
-        if (nodeList == null) {
-            nodeList = new ArrayList<>();
-            nodeList.add(tid);
-            this.transactionWaitGraph.add(nodeList);
-            nodes.add(tid);
+    }
+
+    /**
+     * A queued lock request.  The requesting thread waits on the request
+     * itself, so a release wakes exactly the transactions it lets through.
+     */
+    private static class LockRequest {
+        public final Object key;
+        public final TransactionId tid;
+        public final LockType type;
+        private RequestState state;
+
+        public LockRequest(Object key, TransactionId tid, LockType type) {
+            this.key = key;
+            this.tid = tid;
+            this.type = type;
+            this.state = RequestState.WAITING;
         }
 
-        for (TransactionId waitTid : lock.transactionIdHashSet) {
-            if (!nodeList.contains(waitTid)) {
-                nodeList.add(waitTid);
+        public synchronized void finish(RequestState state) {
+            if (this.state == RequestState.WAITING) {
+                this.state = state;
+                notifyAll();
             }
-            if (!nodes.contains(waitTid)) {
-                List<TransactionId> newList = new ArrayList<>();
-                newList.add(waitTid);
-                this.transactionWaitGraph.add(newList);
+        }
+
+        public synchronized RequestState await() throws InterruptedException {
+            while (this.state == RequestState.WAITING) {
+                wait();
             }
+            return this.state;
         }
+    }
 
-        // check cycle and throw exception.
-        if (checkCycleForGraph(this.transactionWaitGraph, tid)) {
-            throw new TransactionAbortedException();
+    private class Lock {
+        public HashMap<TransactionId, LockType> holders;
+        public LinkedList<LockRequest> waiters;
+        public Lock() {
+            this.holders = new HashMap<>();
+            this.waiters = new LinkedList<>();
         }
     }
 
-    private boolean checkCycleForGraph(List<List<TransactionId>> graph, TransactionId node) {
-        // clone the graph.
-        List<List<TransactionId>> clonedGraph = new ArrayList<>();
-        for (List<TransactionId> list : graph) {
-            List<TransactionId> listCloned = new ArrayList<>();
-            for (TransactionId tid : list) {
-                listCloned.add(tid);
+    public LockManager() {
+        this.lockMap = new ConcurrentHashMap<>();
+        this.mapTidLocks = new ConcurrentHashMap<>();
+        this.mapTidPageCounts = new HashMap<>();
+        this.mapTidRequests = new HashMap<>();
+        this.transactionWaitGraph = new WaitForGraph();
+        this.deadlockPolicy = DeadlockPolicy.DETECTION;
+        this.woundedTids = new HashSet<>();
+        this.detectionIntervalMillis = 0;
+        this.deadlockDetector = null;
+        this.escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+    }
+
+    /**
+     * Choose how deadlocks are dealt with.  Should be set before any
+     * transaction takes locks.
+     */
+    public synchronized void setDeadlockPolicy(DeadlockPolicy policy) {
+        this.deadlockPolicy = policy;
+        if (policy != DeadlockPolicy.DETECTION) {
+            this.transactionWaitGraph = new WaitForGraph();
+        }
+    }
+
+    public synchronized DeadlockPolicy getDeadlockPolicy() {
+        return this.deadlockPolicy;
+    }
+
+    /**
+     * Set how many page locks a transaction may hold on one table before
+     * they are escalated to a table lock.
+     */
+    public synchronized void setEscalationThreshold(int threshold) {
+        this.escalationThreshold = threshold;
+    }
+
+    /**
+     * Choose how deadlocks are found under DETECTION.  With an interval of 0 (the default)
+     * every request that has to wait first checks, by a DFS from the
+     * requester, whether waiting would close a cycle.  With a positive
+     * interval requests wait without checking, and a background thread
+     * searches the whole wait-for graph every intervalMillis milliseconds,
+     * aborting the youngest transaction of each cycle it finds.
+     *
+     * @param intervalMillis the period of the background detector, or 0
+     */
+    public synchronized void setDeadlockDetectionInterval(long intervalMillis) {
+        this.detectionIntervalMillis = intervalMillis;
+        if (intervalMillis > 0 && this.deadlockDetector == null) {
+            this.deadlockDetector = new Thread(this::runDeadlockDetector, "deadlock-detector");
+            this.deadlockDetector.setDaemon(true);
+            this.deadlockDetector.start();
+        }
+        notifyAll();
+    }
+
+    private void runDeadlockDetector() {
+        synchronized (this) {
+            while (this.detectionIntervalMillis > 0) {
+                try {
+                    wait(this.detectionIntervalMillis);
+                } catch (InterruptedException e) {
+                    break;
+                }
+                List<TransactionId> cycle;
+                while (this.detectionIntervalMillis > 0
+                        && (cycle = this.transactionWaitGraph.findCycle()) != null) {
+                    TransactionId victim = cycle.get(0);
+                    for (TransactionId tid : cycle) {
+                        if (tid.getId() > victim.getId()) {
+                            victim = tid;
+                        }
+                    }
+                    cancelRequests(victim);
+                }
             }
-            clonedGraph.add(listCloned);
+            this.deadlockDetector = null;
         }
+    }
 
-        // save the size before modified.
-        int graphSize = clonedGraph.size();
-        List<TransactionId> topologySort = findZeroIndegreeNode(clonedGraph);
+    // remember that tid holds the lock on key; page locks are also counted
+    // per table, together with how many of them are write locks
+    private void transactionAddLock(TransactionId tid, Object key, LockType before, LockType after) {
+        this.mapTidLocks.computeIfAbsent(tid, k -> new HashSet<>()).add(key);
+        if (!(key instanceof PageId)) {
+            return;
+        }
+        int[] counts = this.mapTidPageCounts.computeIfAbsent(tid, k -> new HashMap<>())
+                .computeIfAbsent(((PageId) key).getTableId(), k -> new int[2]);
+        if (before == null) {
+            counts[0]++;
+        }
+        if (after.isExclusive() && (before == null || !before.isExclusive())) {
+            counts[1]++;
+        }
+    }
 
-        // if the node is in topology sort list, the node don't belong to a cycle.
-        if (topologySort.contains(node)) {
-            return false;
+    private void transactionRemoveLock(TransactionId tid, Object key, LockType held) {
+        HashSet<Object> keys = this.mapTidLocks.get(tid);
+        if (keys == null || !keys.remove(key)) {
+            return;
         }
+        if (keys.isEmpty()) {
+            this.mapTidLocks.remove(tid);
+        }
+        if (!(key instanceof PageId)) {
+            return;
+        }
+        Map<Integer, int[]> tables = this.mapTidPageCounts.get(tid);
+        int[] counts = tables == null ? null : tables.get(((PageId) key).getTableId());
+        if (counts != null) {
+            counts[0]--;
+            if (held.isExclusive()) {
+                counts[1]--;
+            }
+        }
+    }
+
+    /**
+     * Acquire a lock on the page for the transaction, blocking until it is
+     * granted.  The matching intention lock on the page's table is taken
+     * first; if the transaction's table lock already covers the page, no
+     * page lock is taken at all.
+     *
+     * @return true once the lock is held
+     * @throws TransactionAbortedException if waiting would deadlock, or the
+     *   wait was cancelled because the transaction completed or the thread
+     *   was interrupted
+     */
+    public boolean acquireLock(PageId pageId, TransactionId tid, LockType type) throws TransactionAbortedException {
+        TableKey table = new TableKey(pageId.getTableId());
+        if (tableCovers(table, tid, type)) {
+            return true;
+        }
+        acquire(table, tid, type.intention());
+        acquire(pageId, tid, type);
+        escalate(table, tid);
         return true;
     }
 
-    private List<TransactionId> findZeroIndegreeNode(List<List<TransactionId>> graph) {
-        List<TransactionId> result = new ArrayList<>();
-        List<TransactionId> indegreeNoZero = new ArrayList<>();
+    /**
+     * Acquire a lock on a whole table, blocking until it is granted.  An S,
+     * SIX or X table lock spares the transaction the page locks it covers.
+     */
+    public boolean acquireTableLock(int tableId, TransactionId tid, LockType type) throws TransactionAbortedException {
+        acquire(new TableKey(tableId), tid, type);
+        return true;
+    }
 
-        if (graph.size() == 0) {
-            return new ArrayList<>();
+    /**
+     * Lock a record for the transaction, which must already hold an intention
+     * lock on the record's page.  Nothing is taken if the page or table lock
+     * of the transaction covers the record.
+     *
+     * @param wait whether to block until the lock is granted, or give up at
+     *   once if it is not free
+     * @return true if the lock is held, false if wait was false and the lock
+     *   is taken
+     * @throws TransactionAbortedException as for {@link #acquireLock}
+     */
+    public boolean acquireRecordLock(RecordId rid, TransactionId tid, LockType type, boolean wait)
+            throws TransactionAbortedException {
+        PageId pageId = rid.getPageId();
+        if (parentCovers(pageId, tid, type) || tableCovers(new TableKey(pageId.getTableId()), tid, type)) {
+            return true;
         }
-        // all the nodes in the graph.
-        List<TransactionId> nodeList = new ArrayList<>();
+        if (wait) {
+            acquire(rid, tid, type);
+            return true;
+        }
+        return tryAcquire(rid, tid, type);
+    }
 
-        // find all the nozero indegree nodes;
-        for (List<TransactionId> list : graph) {
-            nodeList.add(list.get(0));
-            for (int i=1;i<list.size();i++) {
-                TransactionId tid = list.get(i);
-                if (!indegreeNoZero.contains(tid)) {
-                    indegreeNoZero.add(tid);
-                }
-            }
+    private synchronized boolean tableCovers(TableKey table, TransactionId tid, LockType type) {
+        return parentCovers(table, tid, type);
+    }
+
+    private synchronized boolean parentCovers(Object key, TransactionId tid, LockType type) {
+        Lock lock = this.lockMap.get(key);
+        LockType held = lock == null ? null : lock.holders.get(tid);
+        return held != null && held.coversChildren(type);
+    }
+
+    // grant the lock only if nobody has to be waited for
+    private synchronized boolean tryAcquire(Object key, TransactionId tid, LockType type) throws TransactionAbortedException {
+        if (this.woundedTids.contains(tid)) {
+            throw new TransactionAbortedException();
+        }
+        Lock lock = this.lockMap.get(key);
+        if (lock == null) {
+            lock = new Lock();
+            this.lockMap.put(key, lock);
+        }
+        LockRequest request = new LockRequest(key, tid, type);
+        if ((lock.holders.containsKey(tid) || lock.waiters.isEmpty()) && isCompatible(lock, request)) {
+            grant(lock, request);
+            return true;
+        }
+        if (lock.holders.isEmpty() && lock.waiters.isEmpty()) {
+            this.lockMap.remove(key);
+        }
+        return false;
+    }
+
+    private void acquire(Object key, TransactionId tid, LockType type) throws TransactionAbortedException {
+        LockRequest request = enqueue(key, tid, type);
+        if (request == null) {
+            return;
         }
 
-        // find all the zero indegree nodes and remove them in the current grph.
-        List<TransactionId> indegreeZero = new ArrayList<>();
-        for (TransactionId tid : nodeList) {
-            if (!indegreeNoZero.contains(tid)) {
-                result.add(tid);
-                transactionWaitGraphRemove(graph, tid);
+        RequestState state = RequestState.ABORTED;
+        try {
+            state = request.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (state != RequestState.GRANTED) {
+                cancel(request);
             }
         }
+        if (state != RequestState.GRANTED) {
+            throw new TransactionAbortedException();
+        }
+    }
 
-        // find all the zero indegree nodes in the subgraph.
-        List<TransactionId> subResult = null;
-        if (result.size() > 0) {
-            subResult = findZeroIndegreeNode(graph);
+    /**
+     * Grant the lock right away if possible, otherwise queue a request for
+     * it.
+     *
+     * @return null if the lock was granted, else the queued request
+     */
+    private synchronized LockRequest enqueue(Object key, TransactionId tid, LockType type) throws TransactionAbortedException {
+        if (this.woundedTids.contains(tid)) {
+            throw new TransactionAbortedException();
+        }
+        Lock lock = this.lockMap.computeIfAbsent(key, k -> new Lock());
+        LockType held = lock.holders.get(tid);
+        if (held != null && held.combine(type) == held) {
+            return null;
         }
 
-        // merge the result.
-        if (subResult != null) {
-            for (TransactionId tid : subResult) {
-                result.add(tid);
+        LockRequest request = new LockRequest(key, tid, type);
+        if (held != null) {
+            // upgrades wait only for the holders in the way, ahead of everybody
+            if (isCompatible(lock, request)) {
+                grant(lock, request);
+                return null;
             }
+            waitFor(tid, blockers(lock, request));
+            lock.waiters.addFirst(request);
+        } else {
+            if (lock.waiters.isEmpty() && isCompatible(lock, request)) {
+                grant(lock, request);
+                return null;
+            }
+            waitFor(tid, blockers(lock, request));
+            lock.waiters.addLast(request);
         }
-        return result;
+        this.mapTidRequests.computeIfAbsent(tid, k -> new ArrayList<>()).add(request);
+        // wounding the transactions in the way may already have freed the lock
+        grantWaiters(key, lock);
+        return request;
     }
 
-    private void transactionWaitGraphRemove(List<List<TransactionId>> graph, TransactionId tid) {
-        List<TransactionId> nodeList = null, targetNodeList = null;
+    /**
+     * Trade the transaction's page locks on a table for one table lock, if
+     * it holds more than the threshold and the table lock can be granted
+     * without waiting.  Otherwise nothing happens and the next page lock
+     * tries again.
+     */
+    private synchronized void escalate(TableKey table, TransactionId tid) {
+        Map<Integer, int[]> tables = this.mapTidPageCounts.get(tid);
+        int[] counts = tables == null ? null : tables.get(table.tableId);
+        if (counts == null || counts[0] <= this.escalationThreshold) {
+            return;
+        }
+        Lock lock = this.lockMap.get(table);
+        if (lock == null) {
+            return;
+        }
+        LockRequest request = new LockRequest(table, tid,
+                counts[1] > 0 ? LockType.WRITE_LOCK : LockType.READ_LOCK);
+        if (!isCompatible(lock, request)) {
+            return;
+        }
+        grant(lock, request);
+        // the table lock now covers every page of the table
+        for (Object key : new ArrayList<>(this.mapTidLocks.get(tid))) {
+            if (key instanceof PageId && ((PageId) key).getTableId() == table.tableId) {
+                releaseLockOnly(key, tid);
+            }
+        }
+        tables.remove(table.tableId);
+    }
 
-        for (int i=0;i<graph.size();i++) {
-            nodeList = graph.get(i);
-            TransactionId node = nodeList.get(0);
-            if (tid.equals(node)) {
-                if (targetNodeList == null) {
-                    targetNodeList = nodeList;
+    // record that tid is about to wait, refusing to if that would deadlock
+    private void waitFor(TransactionId tid, Collection<TransactionId> waitTids) throws TransactionAbortedException {
+        switch (this.deadlockPolicy) {
+        case WAIT_DIE:
+            for (TransactionId waitTid : waitTids) {
+                if (waitTid.getId() < tid.getId()) {
+                    throw new TransactionAbortedException();
                 }
-            } else {
-                nodeList.remove(tid);
             }
+            return;
+        case WOUND_WAIT:
+            for (TransactionId waitTid : waitTids) {
+                if (waitTid.getId() > tid.getId()) {
+                    wound(waitTid);
+                }
+            }
+            return;
+        default:
+            break;
         }
-
-        if (targetNodeList != null) {
-            graph.remove(targetNodeList);
+        this.transactionWaitGraph.addEdges(tid, waitTids);
+        if (this.detectionIntervalMillis == 0 && this.transactionWaitGraph.hasCycleFrom(tid)) {
+            refreshWaitEdges(tid);
+            throw new TransactionAbortedException();
         }
     }
 
-    private void transactionAddPage(TransactionId tid, PageId pageId) {
-        HashSet<PageId> pageIds = this.mapTidPages.get(tid);
-        if(pageIds == null) {
-            pageIds = new HashSet<>();
-            this.mapTidPages.put(tid, pageIds);
+    // the transactions a queued request is waiting for: the holders whose
+    // mode conflicts with it and the requests queued ahead of it
+    private List<TransactionId> blockers(Lock lock, LockRequest request) {
+        LockType target = target(lock, request);
+        List<TransactionId> waitTids = new ArrayList<>();
+        for (Map.Entry<TransactionId, LockType> holder : lock.holders.entrySet()) {
+            if (!holder.getKey().equals(request.tid) && !target.isCompatibleWith(holder.getValue())) {
+                waitTids.add(holder.getKey());
+            }
+        }
+        for (LockRequest waiter : lock.waiters) {
+            if (waiter == request) {
+                break;
+            }
+            waitTids.add(waiter.tid);
         }
-        if (!pageIds.contains(pageId)) {
-            pageIds.add(pageId);
+        return waitTids;
+    }
+
+    // abort a younger transaction in the way of an older one: whatever it is
+    // waiting for is cancelled, and so is any lock request it makes until it
+    // completes
+    private void wound(TransactionId tid) {
+        if (this.woundedTids.add(tid)) {
+            cancelRequests(tid);
         }
     }
-    private void transactionRemovePage(TransactionId tid, PageId pageId) {
-        HashSet<PageId> pageIds = this.mapTidPages.get(tid);
-        if(pageIds != null) {
-            if (pageIds.contains(pageId)) {
-                pageIds.remove(pageId);
+
+    // rebuild the outgoing edges of tid from the requests it still has queued
+    private void refreshWaitEdges(TransactionId tid) {
+        if (this.deadlockPolicy != DeadlockPolicy.DETECTION) {
+            return;
+        }
+        this.transactionWaitGraph.clearEdges(tid);
+        List<LockRequest> requests = this.mapTidRequests.get(tid);
+        if (requests == null) {
+            return;
+        }
+        for (LockRequest request : requests) {
+            Lock lock = this.lockMap.get(request.key);
+            if (lock != null) {
+                this.transactionWaitGraph.addEdges(tid, blockers(lock, request));
             }
-            if (pageIds.size() == 0) {
-                this.mapTidPages.remove(tid);
+        }
+    }
+
+    // the mode the requester holds once the request is granted
+    private LockType target(Lock lock, LockRequest request) {
+        LockType held = lock.holders.get(request.tid);
+        return held == null ? request.type : held.combine(request.type);
+    }
+
+    private boolean isCompatible(Lock lock, LockRequest request) {
+        LockType target = target(lock, request);
+        for (Map.Entry<TransactionId, LockType> holder : lock.holders.entrySet()) {
+            if (!holder.getKey().equals(request.tid) && !target.isCompatibleWith(holder.getValue())) {
+                return false;
             }
         }
+        return true;
     }
 
-    public synchronized boolean acquireLock(PageId pageId, TransactionId tid, LockType type) throws TransactionAbortedException {
-        //System.out.printf("%d, %d, %d, %s\n", tid.getId(), pageId.getTableId(),
-        //        pageId.getPageNumber(), type.toString());
+    private void grant(Lock lock, LockRequest request) {
+        LockType held = lock.holders.get(request.tid);
+        LockType target = target(lock, request);
+        lock.holders.put(request.tid, target);
+        transactionAddLock(request.tid, request.key, held, target);
+    }
 
-        Lock lock = this.lockMap.get(pageId);
-        // the lock for pageId not exist
-        if (lock == null) {
-            lock = new Lock(type);
-            lock.addTransactionId(tid);
-            this.lockMap.put(pageId, lock);
-            transactionAddPage(tid, pageId);
-            return true;
+    // hand the lock to queued requests, in order, for as long as they fit
+    private void grantWaiters(Object key, Lock lock) {
+        while (!lock.waiters.isEmpty()) {
+            LockRequest request = lock.waiters.peekFirst();
+            if (!isCompatible(lock, request)) {
+                break;
+            }
+            lock.waiters.removeFirst();
+            grant(lock, request);
+            forgetRequest(request);
+            request.finish(RequestState.GRANTED);
         }
+        if (lock.holders.isEmpty() && lock.waiters.isEmpty()) {
+            this.lockMap.remove(key);
+            return;
+        }
+        // whoever is still queued may now wait for different transactions
+        for (LockRequest waiter : lock.waiters) {
+            refreshWaitEdges(waiter.tid);
+        }
+    }
 
-        // the lock for pageId exist and the type is not equal
-        if (type != lock.lockType) {
-            if (lock.transactionIdHashSet.size() == 1 && lock.transactionIdHashSet.contains(tid)) {
-                // if the page is hold by only one transaction, change read lock to write lock
-                if (type == LockType.WRITE_LOCK) {
-                    lock.lockType = LockType.WRITE_LOCK;
-                }
-                lock.addTransactionId(tid);
-                transactionAddPage(tid, pageId);
-                return true;
+    private void forgetRequest(LockRequest request) {
+        List<LockRequest> requests = this.mapTidRequests.get(request.tid);
+        if (requests != null) {
+            requests.remove(request);
+            if (requests.isEmpty()) {
+                this.mapTidRequests.remove(request.tid);
             }
-            transactionWaitGraphAdd(pageId, tid);
-            return false;
         }
+        refreshWaitEdges(request.tid);
+    }
 
-        // the lock for pageId exist and the type is equal
-        if (lock.lockType == LockType.WRITE_LOCK && !lock.transactionIdHashSet.contains(tid)) {
-            transactionWaitGraphAdd(pageId, tid);
-            return false;
+    // withdraw a request whose waiter gave up; a request that was granted in
+    // the meantime stays granted and is released with the transaction
+    private synchronized void cancel(LockRequest request) {
+        request.finish(RequestState.ABORTED);
+        Lock lock = this.lockMap.get(request.key);
+        if (lock != null && lock.waiters.remove(request)) {
+            forgetRequest(request);
+            grantWaiters(request.key, lock);
         }
-        lock.addTransactionId(tid);
-        transactionAddPage(tid, pageId);
-        return true;
     }
 
-    private boolean releaseLockOnly(PageId pageId, TransactionId tid) {
-        Lock lock = this.lockMap.get(pageId);
-        // the lock for pageId not exist
-        if (lock == null) {
-            return true;
+    // abort every request the transaction still has queued
+    private void cancelRequests(TransactionId tid) {
+        List<LockRequest> requests = this.mapTidRequests.remove(tid);
+        if (requests == null) {
+            return;
         }
-        if (lock.transactionIdHashSet.contains(tid)) {
-            lock.transactionIdHashSet.remove(tid);
-            if (lock.transactionIdHashSet.size() == 0) {
-                this.lockMap.remove(pageId);
+        for (LockRequest request : requests) {
+            request.finish(RequestState.ABORTED);
+            Lock lock = this.lockMap.get(request.key);
+            if (lock != null && lock.waiters.remove(request)) {
+                grantWaiters(request.key, lock);
             }
         }
-        return true;
+        this.transactionWaitGraph.clearEdges(tid);
     }
+
+    private void releaseLockOnly(Object key, TransactionId tid) {
+        Lock lock = this.lockMap.get(key);
+        // the lock for key not exist
+        if (lock == null) {
+            return;
+        }
+        LockType held = lock.holders.remove(tid);
+        if (held != null) {
+            transactionRemoveLock(tid, key, held);
+            grantWaiters(key, lock);
+        }
+    }
+
     public synchronized boolean releaseLock(PageId pageId, TransactionId tid) {
-        boolean res = releaseLockOnly(pageId, tid);
-        transactionRemovePage(tid, pageId);
-        transactionWaitGraphRemove(this.transactionWaitGraph, tid);
-        return res;
+        releaseLockOnly(pageId, tid);
+        return true;
     }
 
     public synchronized boolean releaseLock(TransactionId tid) {
-        HashSet<PageId> pageIds = this.mapTidPages.get(tid);
-        if(pageIds != null) {
-            for (PageId pageId : pageIds) {
-                releaseLockOnly(pageId, tid);
+        cancelRequests(tid);
+        HashSet<Object> keys = this.mapTidLocks.get(tid);
+        if (keys != null) {
+            for (Object key : new ArrayList<>(keys)) {
+                releaseLockOnly(key, tid);
             }
-            this.mapTidPages.remove(tid);
         }
-        transactionWaitGraphRemove(this.transactionWaitGraph, tid);
+        this.mapTidLocks.remove(tid);
+        this.mapTidPageCounts.remove(tid);
+        this.transactionWaitGraph.removeNode(tid);
+        this.woundedTids.remove(tid);
         return true;
     }
 
+    /**
+     * @return true if the transaction holds a lock on the page, or a table
+     *   lock that covers it
+     */
     public synchronized boolean holdLock(PageId pageId, TransactionId tid) {
         Lock lock = this.lockMap.get(pageId);
-        // the lock for pageId not exist
-        if (lock == null) {
-            return false;
+        if (lock != null && lock.holders.containsKey(tid)) {
+            return true;
         }
-        return lock.transactionIdHashSet.contains(tid);
+        return tableCovers(new TableKey(pageId.getTableId()), tid, LockType.READ_LOCK);
     }
 
+    /**
+     * @return the pages the transaction holds page locks on; pages covered
+     *   by a table lock are not listed
+     */
     public synchronized List<PageId> holdLockPages(TransactionId tid) {
         List<PageId> pageIdList = new ArrayList<>();
-        HashSet<PageId> pageIdHashSet = this.mapTidPages.get(tid);
-        if (pageIdHashSet != null) {
-            for (PageId pageId : pageIdHashSet) {
-                pageIdList.add(pageId);
+        HashSet<Object> keys = this.mapTidLocks.get(tid);
+        if (keys != null) {
+            for (Object key : keys) {
+                if (key instanceof PageId) {
+                    pageIdList.add((PageId) key);
+                }
             }
         }
         return pageIdList;
@@ -0,0 +1,84 @@
+package simpledb.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * LogBuffer holds the tail of the log that has not been written to the log
+ * segments yet.  Records are serialized into an off-heap buffer and written out
+ * in one sequential write when the log is forced, when the buffer fills up,
+ * or before the log is read back, instead of one small write per field.
+ * <p>
+ * Positions in the log are log sequence numbers (LSNs): the position in
+ * the log segments at which a byte is, or will be, written.  A LogBuffer is
+ * only used under the monitor of the LogFile that owns it.
+ *
+ * @see LogFile
+ * @see LogSegments
+ */
+class LogBuffer extends OutputStream {
+    private final ByteBuffer buffer;
+    private final LogSegments segments;
+    // the LSN of the first byte in the buffer
+    private long start;
+
+    /**
+     * @param capacity the size of the buffer in bytes
+     * @param segments the log
+     * @param lsn where in the log the next byte goes
+     */
+    LogBuffer(int capacity, LogSegments segments, long lsn) {
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.segments = segments;
+        reset(lsn);
+    }
+
+    /**
+     * Start appending at the given position of the log.  Anything still in
+     * the buffer is thrown away.
+     */
+    void reset(long lsn) {
+        this.start = lsn;
+        buffer.clear();
+    }
+
+    /** @return the LSN of the next byte appended */
+    long lsn() {
+        return start + buffer.position();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            flush();
+        }
+        buffer.put((byte) b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.put(b, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write the buffered records to the log segments.  This does not force
+     * them to disk.
+     */
+    @Override
+    public void flush() throws IOException {
+        buffer.flip();
+        int n = buffer.remaining();
+        segments.write(buffer, start);
+        start += n;
+        buffer.clear();
+    }
+}
@@ -2,12 +2,13 @@
 package simpledb.storage;
 
 import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Debug;
 
 import java.io.*;
 import java.util.*;
-import java.lang.reflect.*;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -21,8 +22,8 @@ two-phase locking discipline are followed.  <p>
 Many of the methods here are synchronized (to prevent concurrent log
 writes from happening); many of the methods in BufferPool are also
 synchronized (for similar reasons.)  Problem is that BufferPool writes
-log records (on page flushed) and the log file flushes BufferPool
-pages (on checkpoints and recovery.)  This can lead to deadlock.  For
+log records (on page flushed) and the log file discards BufferPool
+pages (on rollback and recovery.)  This can lead to deadlock.  For
 that reason, any LogFile operation that needs to access the BufferPool
 must not be declared synchronized and must begin with a block like:
 
@@ -39,44 +40,87 @@ must not be declared synchronized and must begin with a block like:
 */
 
 /**
-<p> The format of the log file is as follows:
+<p> The format of the log is as follows:
 
 <ul>
 
-<li> The first long integer of the file represents the offset of the
-last written checkpoint, or -1 if there are no checkpoints
+<li> The log file holds a single long integer, the LSN of the last
+written checkpoint, or -1 if there are no checkpoints
 
-<li> All additional data in the log consists of log records.  Log
-records are variable length.
+<li> The log records are in segment files of a fixed size next to the
+log file; see LogSegments.  Log records are variable length, and may
+run over from one segment into the next.
 
-<li> Each log record begins with an integer type and a long integer
-transaction id.
+<li> Each log record begins with an integer type, a long integer
+transaction id and the long integer offset of the previous record of
+the same transaction, or -1 if there is none.  Only transactions with
+a BEGIN record are chained this way.
 
-<li> Each log record ends with a long integer file offset representing
-the position in the log file where the record began.
+<li> Each log record ends with a long integer LSN representing
+the position in the log where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, TUPLE, BEGIN,
+and CHECKPOINT
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
-<li>UPDATE RECORDS consist of two entries, a before image and an
-after image.  These images are serialized Page objects, and can be
-accessed with the LogFile.readPageData() and LogFile.writePageData()
-methods.  See LogFile.print() for an example.
+<li>UPDATE RECORDS consist of the byte ranges in which the before
+and after images of a page differ, with their old and new bytes.  See
+PageDelta for the format, and LogFile.print() for an example.
+
+<li>TUPLE records are the changes of heap pages made under a record
+lock, one per tuple inserted or deleted, logged as they are made under
+the transaction making them: the page delta as in an UPDATE record, then
+a boolean that is true for an insert, the integer slot, the long offset
+of the TUPLE record an abort took back with this one (-1 if none), and
+the integer length and the bytes of a deleted tuple (0 for an insert).
+Other transactions may change the same page meanwhile, so they are undone
+by taking back the tuple change, not by putting back the old bytes.  A
+record that takes back another is never undone, and neither is the one
+it took back: the room putting back a tuple needs may be gone by then.
 
 <li> CHECKPOINT records consist of active transactions at the time
-the checkpoint was taken and their first log record on disk.  The format
-of the record is an integer count of the number of transactions, as well
-as a long integer transaction id and a long integer first record offset
-for each active transaction.
+the checkpoint was taken and their first and last log records, and of
+the pages whose logged changes were not on disk yet, with the first
+record that changed each since it was last written.  The format of the
+record is an integer count of the number of transactions, as well as a
+long integer transaction id, a long integer first record offset and a
+long integer last record offset for each active transaction; then an
+integer count of the number of pages, as well as a byte page type
+code (see PageType), for registered types an integer table id and an
+integer page number, and a long integer record offset for each page.
 
 </ul>
+
+<p> Records are appended to an in-memory {@link LogBuffer} and only
+reach the segments when the log is forced, when the buffer fills up, or
+before the log is read back.  Record offsets in the log are log
+sequence numbers; they never change, since truncating the log deletes
+whole segments instead of copying what is left.
+
+<p> Checkpoints are fuzzy: they write no pages and do not hold up
+transactions, but hand the pages that were dirty to the buffer pool's
+page writer, so the log before them can be dropped at a later
+checkpoint.
+
+<p> Recovery follows ARIES: an analysis pass reads the checkpoint to
+find the transactions that never finished and the pages whose changes
+may not be on disk; a redo pass repeats history, applying every UPDATE
+record of those pages in log order, and every one after the checkpoint, with the pages split among
+REDO_THREADS threads by page id; an undo pass then follows the record
+chains of the unfinished transactions back, newest record first.
+Rollbacks and the undo pass log what they put back as UPDATE records
+of their own, and the buffer pool logs the tuple changes it takes back
+on an abort as the opposite TUPLE records, so that repeating history
+never brings undone changes back.
 */
 public class LogFile {
 
     final File logFile;
-    private RandomAccessFile raf;
+    // appends go through the buffer; the segments are read directly
+    private final LogSegments segments;
+    private final LogBuffer buffer;
+    private final DataOutputStream out;
     Boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
@@ -84,16 +128,51 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int TUPLE_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
+    static final long NO_PREVIOUS_RECORD = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
+    /** Size of the in-memory tail of the log, in bytes. */
+    static final int LOG_BUFFER_SIZE = 256 * 1024;
+
+    /** Size of a log segment file, in bytes. */
+    public static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
     long currentOffset = -1;//protected by this
+    long forcedOffset = -1;//protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     final Map<Long,Long> tidToFirstLogRecord = new HashMap<>();
+    final Map<Long,Long> tidToLastLogRecord = new HashMap<>();
+    // the dirty page table: the pages whose logged changes may not be on
+    // disk, and the first record that changed each since it was last
+    // written; protected by this
+    final Map<PageId,Long> dirtyPages = new HashMap<>();
+
+    /** Threads the redo pass of recovery splits the pages among. */
+    static final int REDO_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /** Longest a commit waits for others to share its force, in ms. */
+    static final long GROUP_COMMIT_DELAY_MILLIS = 2;
+    /** The log is forced at once when this many commits are waiting. */
+    static final int GROUP_COMMIT_SIZE = 16;
+    /** The flusher thread exits after this long without commits. */
+    static final long FLUSHER_IDLE_MILLIS = 1000;
+
+    long appendedRecords = 0; //protected by this
+    int totalForces = 0; // for GroupCommitTest //protected by this
+
+    // group commit: committers wait on flushLock until the flusher, or any
+    // other force, has made their commit record durable
+    private final Object flushLock = new Object();
+    private long forcedRecords = 0; //protected by flushLock
+    private int waitingCommits = 0; //protected by flushLock
+    private IOException forceFailure = null; //protected by flushLock
+    private Thread flusher = null; //protected by flushLock
 
     /** Constructor.
         Initialize and back the log file with the specified file.
@@ -107,8 +186,19 @@ public class LogFile {
         @param f The log file's name
     */
     public LogFile(File f) throws IOException {
+        this(f, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /** Constructor for a log kept in segments of the given size.
+
+        @param f The log file's name
+        @param segmentSize The size of a log segment file, in bytes
+    */
+    public LogFile(File f, long segmentSize) throws IOException {
 	this.logFile = f;
-        raf = new RandomAccessFile(f, "rw");
+        segments = new LogSegments(f, segmentSize);
+        buffer = new LogBuffer(LOG_BUFFER_SIZE, segments, segments.end());
+        out = new DataOutputStream(buffer);
         recoveryUndecided = true;
 
         // install shutdown hook to force cleanup on close
@@ -127,25 +217,49 @@ public class LogFile {
     // the log.
     void preAppend() throws IOException {
         totalRecords++;
+        appendedRecords++;
         if(recoveryUndecided){
             recoveryUndecided = false;
-            raf.seek(0);
-            raf.setLength(0);
-            raf.writeLong(NO_CHECKPOINT_ID);
-            raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            segments.clear();
+            segments.setCheckpoint(NO_CHECKPOINT_ID);
+            appendAtEnd();
         }
     }
 
+    // append the next record at the end of the log as it is now
+    private void appendAtEnd() throws IOException {
+        buffer.reset(segments.end());
+        currentOffset = buffer.lsn();
+        forcedOffset = -1;
+    }
+
     public synchronized int getTotalRecords() {
         return totalRecords;
     }
+
+    /** @return the number of times the log has been forced to disk */
+    public synchronized int getTotalForces() {
+        return totalForces;
+    }
+
+    /** @return true if tid has a BEGIN record but no COMMIT or ABORT yet */
+    synchronized boolean isLive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
     
     /** Write an abort record to the log for the specified tid, force
         the log to disk, and perform a rollback
         @param tid The aborting transaction.
     */
     public void logAbort(TransactionId tid) throws IOException {
+        // the tuple changes are taken back by the buffer pool, and logged,
+        // before the abort record: after it recovery would not undo them
+        try {
+            Database.getBufferPool().undoRecordChanges(tid);
+        } catch (DbException | TransactionAbortedException e) {
+            throw new IOException("undo of " + tid + " failed", e);
+        }
+
         // must have buffer pool lock before proceeding, since this
         // calls rollback
 
@@ -160,36 +274,112 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
+                writeHeader(ABORT_RECORD, tid.getId());
+                out.writeLong(currentOffset);
+                currentOffset = buffer.lsn();
                 force();
                 tidToFirstLogRecord.remove(tid.getId());
+                tidToLastLogRecord.remove(tid.getId());
             }
         }
     }
 
     /** Write a commit record to disk for the specified tid,
-        and force the log to disk.
+        and wait until the log is forced to disk.
+
+        Commits are forced in groups: the record is appended under the
+        log monitor, but the committer then waits outside of it for the
+        flusher thread, which forces the log once for every commit that
+        arrived within GROUP_COMMIT_DELAY_MILLIS of the first, or as soon
+        as GROUP_COMMIT_SIZE commits are waiting.
 
         @param tid The committing transaction.
     */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
-        tidToFirstLogRecord.remove(tid.getId());
+    public void logCommit(TransactionId tid) throws IOException {
+        long record;
+        synchronized (this) {
+            preAppend();
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+
+            writeHeader(COMMIT_RECORD, tid.getId());
+            out.writeLong(currentOffset);
+            currentOffset = buffer.lsn();
+            tidToFirstLogRecord.remove(tid.getId());
+            tidToLastLogRecord.remove(tid.getId());
+            record = appendedRecords;
+        }
+        awaitForce(record);
+    }
+
+    // wait until the log is forced up to the given record
+    private void awaitForce(long record) throws IOException {
+        synchronized (flushLock) {
+            if (forcedRecords >= record) {
+                return;
+            }
+            waitingCommits++;
+            try {
+                if (flusher == null) {
+                    flusher = new Thread(this::flushCommits, "log-flusher");
+                    flusher.setDaemon(true);
+                    flusher.start();
+                }
+                flushLock.notifyAll();
+                while (forcedRecords < record) {
+                    if (forceFailure != null) {
+                        throw new IOException("log force failed", forceFailure);
+                    }
+                    flushLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for a commit to be forced");
+            } finally {
+                waitingCommits--;
+            }
+        }
+    }
+
+    // the flusher thread; it exits when no commits come for a while
+    private void flushCommits() {
+        while (true) {
+            synchronized (flushLock) {
+                try {
+                    if (waitingCommits == 0) {
+                        flushLock.wait(FLUSHER_IDLE_MILLIS);
+                        if (waitingCommits == 0) {
+                            flusher = null;
+                            return;
+                        }
+                    }
+                    // give concurrent committers a moment to join the group
+                    long deadline = System.currentTimeMillis() + GROUP_COMMIT_DELAY_MILLIS;
+                    long left;
+                    while (waitingCommits < GROUP_COMMIT_SIZE
+                            && (left = deadline - System.currentTimeMillis()) > 0) {
+                        flushLock.wait(left);
+                    }
+                } catch (InterruptedException e) {
+                    flusher = null;
+                    return;
+                }
+            }
+            try {
+                force();
+            } catch (IOException e) {
+                synchronized (flushLock) {
+                    forceFailure = e;
+                    flushLock.notifyAll();
+                }
+            }
+        }
     }
 
     /** Write an UPDATE record to disk for the specified tid and page
-        (with provided         before and after images.)
+        (with provided         before and after images.)  Nothing is
+        written if the images are the same, e.g. for a page whose changes
+        were all logged tuple by tuple.
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
@@ -199,93 +389,78 @@ public class LogFile {
     public  synchronized void logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
+        PageDelta delta = PageDelta.diff(before, after);
+        if (delta.isEmpty()) {
+            return;
+        }
+        Debug.log("WRITE, offset = " + buffer.lsn());
         preAppend();
+        appendUpdate(tid.getId(), delta);
+
+        Debug.log("WRITE OFFSET = " + currentOffset);
+    }
+
+    private void appendUpdate(long tid, PageDelta delta) throws IOException {
         /* update record conists of
 
            record type
            transaction id
-           before page data (see writePageData)
-           after page data
+           previous record of the transaction
+           changed byte ranges (see PageDelta)
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf,before);
-        writePageData(raf,after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-
-        Debug.log("WRITE OFFSET = " + currentOffset);
+        dirtyPages.putIfAbsent(delta.getPageId(), currentOffset);
+        writeHeader(UPDATE_RECORD, tid);
+        delta.write(out);
+        out.writeLong(currentOffset);
+        currentOffset = buffer.lsn();
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException{
-        PageId pid = p.getId();
-        int[] pageInfo = pid.serialize();
-
-        //page data is:
-        // page class name
-        // id class name
-        // id class bytes
-        // id class data
-        // page class bytes
-        // page class data
-
-        String pageClassName = p.getClass().getName();
-        String idClassName = pid.getClass().getName();
-
-        raf.writeUTF(pageClassName);
-        raf.writeUTF(idClassName);
-
-        raf.writeInt(pageInfo.length);
-        for (int j : pageInfo) {
-            raf.writeInt(j);
+    /** Write a TUPLE record for a tuple inserted into or deleted from a
+        heap page under a record lock.  Must be called holding the page's
+        latch, right after the change, with the page's before image
+        holding every change logged before.
+        @param tid The transaction making the change
+        @param before The page before the change
+        @param after The page after the change
+        @param slot The slot of the tuple
+        @param inserted true for an insert, false for a delete
+        @param tuple The bytes of a deleted tuple, or null for an insert
+        @param undoes The offset of the TUPLE record this change takes
+          back, or NO_PREVIOUS_RECORD
+        @return the offset of the record
+    */
+    synchronized long logTupleChange(TransactionId tid, Page before, Page after,
+                                     int slot, boolean inserted, byte[] tuple, long undoes)
+        throws IOException {
+        preAppend();
+        long lsn = currentOffset;
+        PageDelta delta = PageDelta.diff(before, after);
+        dirtyPages.putIfAbsent(delta.getPageId(), currentOffset);
+        writeHeader(TUPLE_RECORD, tid.getId());
+        delta.write(out);
+        out.writeBoolean(inserted);
+        out.writeInt(slot);
+        out.writeLong(undoes);
+        out.writeInt(tuple == null ? 0 : tuple.length);
+        if (tuple != null) {
+            out.write(tuple);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
-        //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
+        out.writeLong(currentOffset);
+        currentOffset = buffer.lsn();
+        return lsn;
     }
 
-    Page readPageData(RandomAccessFile raf) throws IOException {
-        PageId pid;
-        Page newPage = null;
-
-        String pageClassName = raf.readUTF();
-        String idClassName = raf.readUTF();
-
-        try {
-            Class<?> idClass = Class.forName(idClassName);
-            Class<?> pageClass = Class.forName(pageClassName);
-
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
-            int numIdArgs = raf.readInt();
-            Object[] idArgs = new Object[numIdArgs];
-            for (int i = 0; i<numIdArgs;i++) {
-                idArgs[i] = raf.readInt();
-            }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
-            int pageSize = raf.readInt();
-
-            byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
-
-            //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e){
-            e.printStackTrace();
-            throw new IOException();
+    // begin a record at currentOffset, chaining it to the previous record
+    // of its transaction
+    private void writeHeader(int type, long tid) throws IOException {
+        out.writeInt(type);
+        out.writeLong(tid);
+        Long prev = tidToLastLogRecord.get(tid);
+        out.writeLong(prev == null ? NO_PREVIOUS_RECORD : prev);
+        if (tidToFirstLogRecord.containsKey(tid)) {
+            tidToLastLogRecord.put(tid, currentOffset);
         }
-        return newPage;
-
     }
 
     /** Write a BEGIN record for the specified transaction
@@ -300,178 +475,362 @@ public class LogFile {
             throw new IOException("double logXactionBegin()");
         }
         preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
         tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
+        writeHeader(BEGIN_RECORD, tid.getId());
+        out.writeLong(currentOffset);
+        currentOffset = buffer.lsn();
 
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Note that a page was written to disk with all of its logged
+        changes, so recovery need not redo them.
+        @param pid The page written
+    */
+    public synchronized void pageWritten(PageId pid) {
+        dirtyPages.remove(pid);
+    }
+
+    /** Write a fuzzy checkpoint record, with the active transactions and
+        the dirty page table.  No page is written and the buffer pool is
+        not locked; instead the pages that are dirty now are handed to
+        the pool's page writer, to be written in the background before
+        the next checkpoint can truncate the log up to them.
+    */
     public void logCheckpoint() throws IOException {
-        //make sure we have buffer pool lock before proceeding
-        synchronized (Database.getBufferPool()) {
-            synchronized (this) {
-                //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+        List<PageId> dirty;
+        synchronized (this) {
+            //Debug.log("CHECKPOINT, offset = " + buffer.lsn());
+            preAppend();
+            long startCpOffset, endCpOffset;
+            Set<Long> keys = tidToFirstLogRecord.keySet();
+            Iterator<Long> els = keys.iterator();
+            startCpOffset = buffer.lsn();
+            //no tid , but leave space for convenience
+            writeHeader(CHECKPOINT_RECORD, -1);
+
+            //write list of outstanding transactions
+            out.writeInt(keys.size());
+            while (els.hasNext()) {
+                Long key = els.next();
+                Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
+                out.writeLong(key);
+                //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
+                out.writeLong(tidToFirstLogRecord.get(key));
+                out.writeLong(tidToLastLogRecord.get(key));
+            }
+            //and the dirty page table
+            out.writeInt(dirtyPages.size());
+            for (Map.Entry<PageId, Long> entry : dirtyPages.entrySet()) {
+                PageId pid = entry.getKey();
+                PageType type = PageType.ofId(pid);
+                if (type == null) {
+                    out.writeByte(PageType.UNREGISTERED);
+                } else {
+                    out.writeByte(type.code);
+                    out.writeInt(pid.getTableId());
+                    out.writeInt(pid.getPageNumber());
                 }
-
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
+                out.writeLong(entry.getValue());
             }
+            out.writeLong(currentOffset);
+            endCpOffset = buffer.lsn();
+            currentOffset = endCpOffset;
+
+            //once the CP is on disk, make sure the CP location at the
+            // beginning of the log file is updated
+            force();
+            segments.setCheckpoint(startCpOffset);
+            //Debug.log("CP OFFSET = " + currentOffset);
+            dirty = new ArrayList<>(dirtyPages.keySet());
         }
+        // outside the log monitor, which comes after the pool's
+        Database.getBufferPool().writeInBackground(dirty);
 
         logTruncate();
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
-        consumption */
+        consumption.  Only whole segments are dropped, so this costs the
+        same however long the log is. */
     public synchronized void logTruncate() throws IOException {
         preAppend();
-        raf.seek(0);
-        long cpLoc = raf.readLong();
+        buffer.flush();
+        long cpLoc = segments.checkpoint();
 
         long minLogRecord = cpLoc;
 
-        if (cpLoc != -1L) {
-            raf.seek(cpLoc);
-            int cpType = raf.readInt();
-            @SuppressWarnings("unused")
-            long cpTid = raf.readLong();
+        if (cpLoc != NO_CHECKPOINT_ID) {
+            LogRecord checkpoint = readRecord(cpLoc);
 
-            if (cpType != CHECKPOINT_RECORD) {
+            if (checkpoint.type != CHECKPOINT_RECORD) {
                 throw new RuntimeException("Checkpoint pointer does not point to checkpoint record");
             }
 
-            int numOutstanding = raf.readInt();
+            for (long[] xaction : checkpoint.active) {
+                minLogRecord = Math.min(minLogRecord, xaction[1]);
+            }
+            // recovery redoes the dirty pages from their first change
+            minLogRecord = Math.min(minLogRecord, checkpoint.redoFrom());
+
+            // we can truncate everything before minLogRecord
+            Debug.log("TRUNCATING LOG BEFORE " + minLogRecord + "; LOG STARTED AT " + segments.start());
+            segments.truncate(minLogRecord);
+        }
+    }
 
-            for (int i = 0; i < numOutstanding; i++) {
-                @SuppressWarnings("unused")
-                long tid = raf.readLong();
-                long firstLogRecord = raf.readLong();
-                if (firstLogRecord < minLogRecord) {
-                    minLogRecord = firstLogRecord;
+    /** Rollback the specified transaction, setting the state of any
+        of pages it updated to their pre-updated state.  To preserve
+        transaction semantics, this should not be called on
+        transactions that have already committed (though this may not
+        be enforced by this method.)
+
+        The records of the transaction are found by following their
+        chain back from its last one, so a rollback reads none of the
+        records of other transactions.
+
+        @param tid The transaction to rollback
+    */
+    public void rollback(TransactionId tid)
+        throws NoSuchElementException, IOException {
+        synchronized (Database.getBufferPool()) {
+            synchronized(this) {
+                preAppend();
+                // some code goes here
+                if (!tidToFirstLogRecord.containsKey(tid.getId())) {
+                    throw new NoSuchElementException("no live transaction " + tid.getId());
+                }
+                // undo newest first, back to the version before the
+                // first change
+                BufferPool pool = Database.getBufferPool();
+                PageImages images = new PageImages();
+                long lsn = tidToLastLogRecord.get(tid.getId());
+                while (lsn != NO_PREVIOUS_RECORD) {
+                    LogRecord record = readRecord(lsn);
+                    // the buffer pool undoes record changes itself, in place,
+                    // without losing other transactions' changes to the page;
+                    // TUPLE records are all such changes
+                    if (record.type == UPDATE_RECORD && !pool.hasRecordChanges(tid, record.delta.getPageId())) {
+                        record.delta.undo(images.get(record));
+                    }
+                    lsn = record.prev;
                 }
+                images.logUndone();
+                images.writeAll();
+                images.forgetAll();
             }
         }
+    }
 
-        // we can truncate everything before minLogRecord
-        File newFile = new File("logtmp" + System.currentTimeMillis());
-        RandomAccessFile logNew = new RandomAccessFile(newFile, "rw");
-        logNew.seek(0);
-        logNew.writeLong((cpLoc - minLogRecord) + LONG_SIZE);
+    /** A log record, as read back by readRecord. */
+    private static class LogRecord {
+        final long lsn;
+        final int type;
+        final long tid;
+        final long prev;
+        final PageDelta delta;
+        // of a TUPLE record, whether it inserted, the slot, the record it
+        // took back, and the bytes of a deleted tuple
+        final boolean inserted;
+        final int slot;
+        final long undoes;
+        final byte[] tuple;
+        // of a checkpoint, {tid, first record, last record} of each
+        // transaction active at the time, the dirty page table, and the
+        // first record of the dirty pages of unregistered types
+        final List<long[]> active;
+        final Map<PageId, Long> dirty;
+        final long unregisteredDirty;
+
+        LogRecord(long lsn, int type, long tid, long prev, PageDelta delta,
+                  boolean inserted, int slot, long undoes, byte[] tuple,
+                  List<long[]> active, Map<PageId, Long> dirty, long unregisteredDirty) {
+            this.lsn = lsn;
+            this.type = type;
+            this.tid = tid;
+            this.prev = prev;
+            this.delta = delta;
+            this.inserted = inserted;
+            this.slot = slot;
+            this.undoes = undoes;
+            this.tuple = tuple;
+            this.active = active;
+            this.dirty = dirty;
+            this.unregisteredDirty = unregisteredDirty;
+        }
 
-        raf.seek(minLogRecord);
+        /** @return of a checkpoint, the first record recovery redoes */
+        long redoFrom() {
+            long from = Math.min(lsn, unregisteredDirty);
+            for (long recLsn : dirty.values()) {
+                from = Math.min(from, recLsn);
+            }
+            return from;
+        }
 
-        //have to rewrite log records since offsets are different after truncation
-        while (true) {
+        /** Take back the change of a TUPLE record on an image of its
+            page: free the slot of an insert, or put a deleted tuple back. */
+        void undoTuple(byte[] image) throws IOException {
+            HeapPage page = (HeapPage) delta.newPage(image);
             try {
-                int type = raf.readInt();
-                long record_tid = raf.readLong();
-                long newStart = logNew.getFilePointer();
+                page.undoTupleChange(slot, inserted, tuple);
+            } catch (DbException e) {
+                throw new IOException("cannot undo record " + lsn, e);
+            }
+            System.arraycopy(page.getPageData(), 0, image, 0, image.length);
+        }
+    }
 
-                Debug.log("NEW START = " + newStart);
+    /** The images of the pages a rollback or recovery changes, read from
+        disk when first needed and written back once all changes are made. */
+    private class PageImages {
+        private final Map<PageId, byte[]> images = new LinkedHashMap<>();
+        // the images as read, to log what an undo put back
+        private final Map<PageId, byte[]> originals = new HashMap<>();
+        // a record of each page; its delta knows how to make the page
+        private final Map<PageId, LogRecord> records = new HashMap<>();
+
+        byte[] get(LogRecord record) {
+            PageId pid = record.delta.getPageId();
+            byte[] image = images.get(pid);
+            if (image == null) {
+                Page page = null;
+                try {
+                    page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                } catch (RuntimeException e) {
+                    // past the end of the file
+                }
+                image = page == null ? new byte[record.delta.getPageSize()] : page.getPageData();
+                images.put(pid, image);
+                originals.put(pid, image.clone());
+                records.put(pid, record);
+            }
+            return image;
+        }
 
-                logNew.writeInt(type);
-                logNew.writeLong(record_tid);
+        /** Log the undone pages as changes of the transactions undone, so
+            that redo repeats the undo too. */
+        void logUndone() throws IOException {
+            for (Map.Entry<PageId, byte[]> entry : images.entrySet()) {
+                PageId pid = entry.getKey();
+                byte[] original = originals.get(pid);
+                if (!Arrays.equals(original, entry.getValue())) {
+                    PageDelta delta = records.get(pid).delta;
+                    appendUpdate(records.get(pid).tid,
+                            PageDelta.diff(delta.newPage(original), delta.newPage(entry.getValue())));
+                }
+            }
+        }
 
-                switch (type) {
-                case UPDATE_RECORD:
-                    Page before = readPageData(raf);
-                    Page after = readPageData(raf);
+        /** Write the images to their files; safe to call from any thread. */
+        void writeAll() throws IOException {
+            for (Map.Entry<PageId, byte[]> entry : images.entrySet()) {
+                PageId pid = entry.getKey();
+                Page page = records.get(pid).delta.newPage(entry.getValue());
+                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            }
+        }
 
-                    writePageData(logNew, before);
-                    writePageData(logNew, after);
-                    break;
-                case CHECKPOINT_RECORD:
-                    int numXactions = raf.readInt();
-                    logNew.writeInt(numXactions);
-                    while (numXactions-- > 0) {
-                        long xid = raf.readLong();
-                        long xoffset = raf.readLong();
-                        logNew.writeLong(xid);
-                        logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
-                    }
-                    break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
+        /** Drop whatever versions of the written pages the buffer pool
+            holds. */
+        void forgetAll() {
+            for (PageId pid : images.keySet()) {
+                dirtyPages.remove(pid);
+                Database.getBufferPool().discardPage(pid);
+                DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                if (file instanceof HeapFile) {
+                    // the image may have more free slots than the page had
+                    ((HeapFile) file).spaceFreed(pid);
                 }
+            }
+        }
+    }
 
-                //all xactions finish with a pointer
-                logNew.writeLong(newStart);
-                raf.readLong();
+    /** Read the log records from the given offset to the end of the log.
+        A record cut short by a crash ends the log.
 
+        @param offset The offset of the first record to read
+    */
+    private List<LogRecord> readRecords(long offset) throws IOException {
+        List<LogRecord> records = new ArrayList<>();
+        buffer.flush();
+        LogSegments.Input log = segments.read(offset);
+        DataInputStream in = new DataInputStream(log);
+        while (true) {
+            try {
+                records.add(readRecord(in, log.position()));
             } catch (EOFException e) {
                 break;
             }
         }
-
-        Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
-
-        raf.close();
-        logFile.delete();
-        newFile.renameTo(logFile);
-        raf = new RandomAccessFile(logFile, "rw");
-        raf.seek(raf.length());
-        newFile.delete();
-
-        currentOffset = raf.getFilePointer();
-        //print();
+        return records;
     }
 
-    /** Rollback the specified transaction, setting the state of any
-        of pages it updated to their pre-updated state.  To preserve
-        transaction semantics, this should not be called on
-        transactions that have already committed (though this may not
-        be enforced by this method.)
+    /** Read the log record at the given offset. */
+    private LogRecord readRecord(long lsn) throws IOException {
+        buffer.flush();
+        return readRecord(new DataInputStream(segments.read(lsn)), lsn);
+    }
 
-        @param tid The transaction to rollback
-    */
-    public void rollback(TransactionId tid)
-        throws NoSuchElementException, IOException {
-        synchronized (Database.getBufferPool()) {
-            synchronized(this) {
-                preAppend();
-                // some code goes here
+    private static LogRecord readRecord(DataInput in, long lsn) throws IOException {
+        int type = in.readInt();
+        long recordTid = in.readLong();
+        long prev = in.readLong();
+        PageDelta delta = null;
+        boolean inserted = false;
+        int slot = -1;
+        long undoes = NO_PREVIOUS_RECORD;
+        byte[] tuple = null;
+        List<long[]> active = null;
+        Map<PageId, Long> dirty = null;
+        long unregisteredDirty = Long.MAX_VALUE;
+        switch (type) {
+        case UPDATE_RECORD:
+            delta = PageDelta.read(in);
+            break;
+        case TUPLE_RECORD:
+            delta = PageDelta.read(in);
+            inserted = in.readBoolean();
+            slot = in.readInt();
+            undoes = in.readLong();
+            tuple = new byte[in.readInt()];
+            in.readFully(tuple);
+            break;
+        case CHECKPOINT_RECORD:
+            int numXactions = in.readInt();
+            active = new ArrayList<>();
+            while (numXactions-- > 0) {
+                active.add(new long[]{in.readLong(), in.readLong(), in.readLong()});
             }
+            int numPages = in.readInt();
+            dirty = new HashMap<>();
+            while (numPages-- > 0) {
+                byte code = in.readByte();
+                if (code == PageType.UNREGISTERED) {
+                    unregisteredDirty = Math.min(unregisteredDirty, in.readLong());
+                } else {
+                    PageId pid = PageType.forCode(code).newId(in.readInt(), in.readInt());
+                    dirty.put(pid, in.readLong());
+                }
+            }
+            break;
         }
+        in.readLong();
+        return new LogRecord(lsn, type, recordTid, prev, delta, inserted, slot, undoes, tuple,
+                active, dirty, unregisteredDirty);
     }
-
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
     */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
+            // a checkpoint with no dirty pages leaves recovery nothing to redo
+            Database.getBufferPool().flushAllPages();
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                segments.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -487,72 +846,238 @@ public class LogFile {
             synchronized (this) {
                 recoveryUndecided = false;
                 // some code goes here
+                long cpLoc = segments.checkpoint();
+
+                // analysis: the transactions that never finished, with
+                // their last records, and the pages whose changes may not
+                // be on disk, with the first record to redo of each
+                Map<Long, Long> losers = new HashMap<>();
+                Map<PageId, Long> redoPages = new HashMap<>();
+                // every record from here on is redone, whatever its page
+                long redoAll = segments.start();
+                long start = segments.start();
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    LogRecord checkpoint = readRecord(cpLoc);
+                    for (long[] xaction : checkpoint.active) {
+                        losers.put(xaction[0], xaction[2]);
+                    }
+                    redoPages.putAll(checkpoint.dirty);
+                    redoAll = Math.min(cpLoc, checkpoint.unregisteredDirty);
+                    start = checkpoint.redoFrom();
+                }
+                List<LogRecord> records = readRecords(start);
+                for (LogRecord record : records) {
+                    if (record.lsn <= cpLoc) {
+                        // the checkpoint has the state of the transactions
+                        continue;
+                    }
+                    switch (record.type) {
+                    case BEGIN_RECORD:
+                        losers.put(record.tid, record.lsn);
+                        break;
+                    case UPDATE_RECORD:
+                    case TUPLE_RECORD:
+                        if (losers.containsKey(record.tid)) {
+                            losers.put(record.tid, record.lsn);
+                        }
+                        break;
+                    case COMMIT_RECORD:
+                    case ABORT_RECORD:
+                        losers.remove(record.tid);
+                        break;
+                    }
+                }
+
+                redo(records, redoPages, redoAll);
+
+                // undo: follow the chains of the losers back, newest
+                // record first over all of them
+                TreeMap<Long, Long> toUndo = new TreeMap<>();
+                for (Map.Entry<Long, Long> loser : losers.entrySet()) {
+                    toUndo.put(loser.getValue(), loser.getKey());
+                }
+                PageImages images = new PageImages();
+                // the tuple changes an abort already took back
+                Set<Long> undone = new HashSet<>();
+                while (!toUndo.isEmpty()) {
+                    Map.Entry<Long, Long> next = toUndo.pollLastEntry();
+                    LogRecord record = readRecord(next.getKey());
+                    if (record.type == UPDATE_RECORD) {
+                        record.delta.undo(images.get(record));
+                    } else if (record.type == TUPLE_RECORD && record.undoes != NO_PREVIOUS_RECORD) {
+                        undone.add(record.undoes);
+                    } else if (record.type == TUPLE_RECORD && !undone.contains(record.lsn)) {
+                        record.undoTuple(images.get(record));
+                    }
+                    if (record.prev != NO_PREVIOUS_RECORD) {
+                        toUndo.put(record.prev, next.getValue());
+                    }
+                }
+                tidToFirstLogRecord.clear();
+                tidToLastLogRecord.clear();
+                dirtyPages.clear();
+                appendAtEnd();
+                // the losers end like aborted transactions, so a later
+                // recovery neither redoes nor undoes them again
+                images.logUndone();
+                for (Long loser : losers.keySet()) {
+                    writeHeader(ABORT_RECORD, loser);
+                    out.writeLong(currentOffset);
+                    currentOffset = buffer.lsn();
+                }
+                force();
+                images.writeAll();
+                images.forgetAll();
             }
          }
     }
 
-    /** Print out a human readable represenation of the log */
-    public void print() throws IOException {
-        long curOffset = raf.getFilePointer();
+    /** Redo, in log order, the UPDATE and TUPLE records of the dirty pages from the
+        first record that changed each, and all records from redoAll on.
+        The pages are split among REDO_THREADS threads by page id; each
+        thread reads, redoes and writes its own pages.
+
+        @param records The records from the first one to redo on
+        @param redoPages The first record to redo of each dirty page
+        @param redoAll The first record to redo whatever its page
+    */
+    private void redo(List<LogRecord> records, Map<PageId, Long> redoPages, long redoAll) throws IOException {
+        int numThreads = Math.max(1, Math.min(REDO_THREADS, records.size()));
+        List<List<LogRecord>> partitions = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            partitions.add(new ArrayList<>());
+        }
+        for (LogRecord record : records) {
+            if (record.type != UPDATE_RECORD && record.type != TUPLE_RECORD) {
+                continue;
+            }
+            PageId pid = record.delta.getPageId();
+            Long recLsn = redoPages.get(pid);
+            if (record.lsn >= redoAll || (recLsn != null && record.lsn >= recLsn)) {
+                partitions.get(Math.floorMod(pid.hashCode(), numThreads)).add(record);
+            }
+        }
 
-        raf.seek(0);
+        PageImages[] images = new PageImages[numThreads];
+        Exception[] failures = new Exception[numThreads];
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            final int part = i;
+            images[part] = new PageImages();
+            threads[part] = new Thread(() -> {
+                try {
+                    for (LogRecord record : partitions.get(part)) {
+                        record.delta.redo(images[part].get(record));
+                    }
+                    images[part].writeAll();
+                } catch (IOException | RuntimeException e) {
+                    failures[part] = e;
+                }
+            }, "log-redo-" + part);
+            threads[part].start();
+        }
+        for (int i = 0; i < numThreads; i++) {
+            try {
+                threads[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for redo");
+            }
+        }
+        for (int i = 0; i < numThreads; i++) {
+            if (failures[i] != null) {
+                throw new IOException("redo failed", failures[i]);
+            }
+            images[i].forgetAll();
+        }
+    }
+    /** Print out a human readable represenation of the log */
+    public synchronized void print() throws IOException {
+        buffer.flush();
+        LogSegments.Input log = segments.read(segments.start());
+        DataInputStream in = new DataInputStream(log);
 
-        System.out.println("0: checkpoint record at offset " + raf.readLong());
+        System.out.println("checkpoint record at offset " + segments.checkpoint());
 
         while (true) {
             try {
-                int cpType = raf.readInt();
-                long cpTid = raf.readLong();
+                int cpType = in.readInt();
+                long cpTid = in.readLong();
 
-                System.out.println((raf.getFilePointer() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
-                System.out.println((raf.getFilePointer() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println((log.position() - (INT_SIZE + LONG_SIZE)) + ": RECORD TYPE " + cpType);
+                System.out.println((log.position() - LONG_SIZE) + ": TID " + cpTid);
+                System.out.println(log.position() + ": PREVIOUS RECORD: " + in.readLong());
 
                 switch (cpType) {
                 case BEGIN_RECORD:
                     System.out.println(" (BEGIN)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(log.position() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case ABORT_RECORD:
                     System.out.println(" (ABORT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(log.position() + ": RECORD START OFFSET: " + in.readLong());
                     break;
                 case COMMIT_RECORD:
                     System.out.println(" (COMMIT)");
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(log.position() + ": RECORD START OFFSET: " + in.readLong());
                     break;
 
                 case CHECKPOINT_RECORD:
                     System.out.println(" (CHECKPOINT)");
-                    int numTransactions = raf.readInt();
-                    System.out.println((raf.getFilePointer() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
+                    int numTransactions = in.readInt();
+                    System.out.println((log.position() - INT_SIZE) + ": NUMBER OF OUTSTANDING RECORDS: " + numTransactions);
 
                     while (numTransactions-- > 0) {
-                        long tid = raf.readLong();
-                        long firstRecord = raf.readLong();
-                        System.out.println((raf.getFilePointer() - (LONG_SIZE + LONG_SIZE)) + ": TID: " + tid);
-                        System.out.println((raf.getFilePointer() - LONG_SIZE) + ": FIRST LOG RECORD: " + firstRecord);
+                        long tid = in.readLong();
+                        long firstRecord = in.readLong();
+                        long lastRecord = in.readLong();
+                        System.out.println((log.position() - (3 * LONG_SIZE)) + ": TID: " + tid);
+                        System.out.println((log.position() - (2 * LONG_SIZE)) + ": FIRST LOG RECORD: " + firstRecord);
+                        System.out.println((log.position() - LONG_SIZE) + ": LAST LOG RECORD: " + lastRecord);
                     }
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    int numPages = in.readInt();
+                    System.out.println((log.position() - INT_SIZE) + ": NUMBER OF DIRTY PAGES: " + numPages);
+
+                    while (numPages-- > 0) {
+                        long pageStart = log.position();
+                        byte code = in.readByte();
+                        String page = code == PageType.UNREGISTERED ? "unregistered page"
+                                : PageType.forCode(code).newId(in.readInt(), in.readInt()).toString();
+                        System.out.println(pageStart + ": DIRTY PAGE: " + page + ", FIRST RECORD " + in.readLong());
+                    }
+                    System.out.println(log.position() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 case UPDATE_RECORD:
                     System.out.println(" (UPDATE)");
 
-                    long start = raf.getFilePointer();
-                    Page before = readPageData(raf);
+                    long start = log.position();
+                    PageDelta delta = PageDelta.read(in);
+
+                    System.out.println(start + ": table id " + delta.getPageId().getTableId());
+                    System.out.println(start + ": page number " + delta.getPageId().getPageNumber());
+                    System.out.println(start + " TO " + (log.position()) + ": changed bytes");
 
-                    long middle = raf.getFilePointer();
-                    Page after = readPageData(raf);
+                    System.out.println(log.position() + ": RECORD START OFFSET: " + in.readLong());
 
-                    System.out.println(start + ": before image table id " + before.getId().getTableId());
-                    System.out.println((start + INT_SIZE) + ": before image page number " + before.getId().getPageNumber());
-                    System.out.println((start + INT_SIZE) + " TO " + (middle - INT_SIZE) + ": page data");
+                    break;
+                case TUPLE_RECORD:
+                    System.out.println(" (TUPLE)");
 
-                    System.out.println(middle + ": after image table id " + after.getId().getTableId());
-                    System.out.println((middle + INT_SIZE) + ": after image page number " + after.getId().getPageNumber());
-                    System.out.println((middle + INT_SIZE) + " TO " + (raf.getFilePointer()) + ": page data");
+                    long tupleStart = log.position();
+                    PageDelta tupleDelta = PageDelta.read(in);
+                    boolean inserted = in.readBoolean();
+                    int slot = in.readInt();
+                    long undoes = in.readLong();
+                    in.skipBytes(in.readInt());
 
-                    System.out.println(raf.getFilePointer() + ": RECORD START OFFSET: " + raf.readLong());
+                    System.out.println(tupleStart + ": table id " + tupleDelta.getPageId().getTableId());
+                    System.out.println(tupleStart + ": page number " + tupleDelta.getPageId().getPageNumber());
+                    System.out.println(tupleStart + " TO " + (log.position()) + ": "
+                            + (inserted ? "inserted" : "deleted") + " slot " + slot
+                            + (undoes == NO_PREVIOUS_RECORD ? "" : ", undoing " + undoes));
+
+                    System.out.println(log.position() + ": RECORD START OFFSET: " + in.readLong());
 
                     break;
                 }
@@ -562,13 +1087,24 @@ public class LogFile {
                 break;
             }
         }
-
-        // Return the file pointer to its original position
-        raf.seek(curOffset);
     }
 
     public  synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+        long record = appendedRecords;
+        if (currentOffset != forcedOffset) {
+            buffer.flush();
+            segments.force();
+            forcedOffset = currentOffset;
+            totalForces++;
+        }
+        synchronized (flushLock) {
+            // releases the commits waiting for the flusher as well
+            if (record > forcedRecords) {
+                forcedRecords = record;
+            }
+            forceFailure = null;
+            flushLock.notifyAll();
+        }
     }
 
 }
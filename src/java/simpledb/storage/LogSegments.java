@@ -0,0 +1,230 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * LogSegments stores the log in segment files of a fixed size.  An LSN is
+ * the position of a byte in the concatenation of all segments, so the
+ * segment holding it is the LSN divided by the segment size; a record may
+ * run over into the next segment.  Segment files are named after the log
+ * file with their number appended, and the log file itself only holds the
+ * LSN of the last checkpoint.
+ * <p>
+ * Truncating the log deletes the segments that hold nothing but records
+ * from before the truncation point: no record is copied and LSNs never
+ * change.  A LogSegments is only used under the monitor of the LogFile
+ * that owns it.
+ *
+ * @see LogFile
+ */
+class LogSegments {
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final File logFile;
+    private final RandomAccessFile control;
+    private final long segmentSize;
+    // the LSN-to-segment index: the segments on disk by number
+    private final TreeMap<Long, FileChannel> segments = new TreeMap<>();
+    // the segments written since the last force
+    private final Set<FileChannel> unforced = new HashSet<>();
+    private long end;
+
+    /**
+     * Open the segments of the given log file, as far as there are any.
+     *
+     * @param logFile the log file, which holds the checkpoint LSN
+     * @param segmentSize the size of each segment in bytes
+     */
+    LogSegments(File logFile, long segmentSize) throws IOException {
+        this.logFile = logFile;
+        this.control = new RandomAccessFile(logFile, "rw");
+        this.segmentSize = segmentSize;
+        File[] files = logFile.getAbsoluteFile().getParentFile().listFiles();
+        if (files != null) {
+            String prefix = logFile.getName() + ".";
+            for (File f : files) {
+                if (!f.getName().startsWith(prefix)) {
+                    continue;
+                }
+                try {
+                    long number = Long.parseLong(f.getName().substring(prefix.length()));
+                    segments.put(number, new RandomAccessFile(f, "rw").getChannel());
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        end = segments.isEmpty() ? 0 : segments.lastKey() * segmentSize + segments.lastEntry().getValue().size();
+    }
+
+    /** @return the LSN of the oldest byte still on disk */
+    long start() {
+        return segments.isEmpty() ? end : Math.min(end, segments.firstKey() * segmentSize);
+    }
+
+    /** @return the LSN of the byte after the last one written */
+    long end() {
+        return end;
+    }
+
+    /** @return the LSN of the last checkpoint, or LogFile.NO_CHECKPOINT_ID */
+    long checkpoint() throws IOException {
+        if (control.length() < LogFile.LONG_SIZE) {
+            return LogFile.NO_CHECKPOINT_ID;
+        }
+        control.seek(0);
+        return control.readLong();
+    }
+
+    void setCheckpoint(long lsn) throws IOException {
+        control.seek(0);
+        control.writeLong(lsn);
+    }
+
+    private FileChannel segment(long number, boolean create) throws IOException {
+        FileChannel ch = segments.get(number);
+        if (ch == null) {
+            if (!create) {
+                throw new IOException("log segment " + number + " of " + logFile + " is gone");
+            }
+            File f = new File(logFile.getPath() + "." + number);
+            ch = new RandomAccessFile(f, "rw").getChannel();
+            segments.put(number, ch);
+        }
+        return ch;
+    }
+
+    /**
+     * Write the remaining bytes of the buffer at the given LSN, creating
+     * segments as needed.  This does not force them to disk.
+     */
+    void write(ByteBuffer buf, long lsn) throws IOException {
+        while (buf.hasRemaining()) {
+            FileChannel ch = segment(lsn / segmentSize, true);
+            long offset = lsn % segmentSize;
+            int n = (int) Math.min(buf.remaining(), segmentSize - offset);
+            ByteBuffer part = buf.duplicate();
+            part.limit(part.position() + n);
+            int written = 0;
+            while (written < n) {
+                written += ch.write(part, offset + written);
+            }
+            buf.position(buf.position() + n);
+            lsn += n;
+            unforced.add(ch);
+        }
+        end = Math.max(end, lsn);
+    }
+
+    /** Force the segments written since the last force to disk. */
+    void force() throws IOException {
+        for (FileChannel ch : unforced) {
+            ch.force(true);
+        }
+        unforced.clear();
+    }
+
+    /** Delete the segments holding only bytes before the given LSN. */
+    void truncate(long lsn) throws IOException {
+        while (!segments.isEmpty() && (segments.firstKey() + 1) * segmentSize <= lsn) {
+            delete(segments.pollFirstEntry());
+        }
+    }
+
+    /** Delete all segments and start the log over at LSN 0. */
+    void clear() throws IOException {
+        while (!segments.isEmpty()) {
+            delete(segments.pollFirstEntry());
+        }
+        end = 0;
+        control.setLength(0);
+    }
+
+    private void delete(Map.Entry<Long, FileChannel> segment) throws IOException {
+        segment.getValue().close();
+        unforced.remove(segment.getValue());
+        new File(logFile.getPath() + "." + segment.getKey()).delete();
+    }
+
+    /** @return a stream of the log from the given LSN to its end */
+    Input read(long lsn) throws IOException {
+        if (lsn < start()) {
+            throw new IOException("log truncated before " + lsn);
+        }
+        return new Input(lsn);
+    }
+
+    void close() throws IOException {
+        for (FileChannel ch : segments.values()) {
+            ch.close();
+        }
+        control.close();
+    }
+
+    /** A buffered stream of the log, which knows its LSN. */
+    class Input extends InputStream {
+        private final byte[] buf = new byte[READ_BUFFER_SIZE];
+        private long bufStart;
+        private int bufLen = 0;
+        private int bufPos = 0;
+
+        private Input(long lsn) {
+            this.bufStart = lsn;
+        }
+
+        /** @return the LSN of the next byte read */
+        long position() {
+            return bufStart + bufPos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (bufPos == bufLen && !fill()) {
+                return -1;
+            }
+            return buf[bufPos++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (bufPos == bufLen && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, bufLen - bufPos);
+            System.arraycopy(buf, bufPos, b, off, n);
+            bufPos += n;
+            return n;
+        }
+
+        // read on from the end of the buffer, up to the end of a segment
+        private boolean fill() throws IOException {
+            bufStart += bufLen;
+            bufPos = 0;
+            bufLen = 0;
+            if (bufStart >= end) {
+                return false;
+            }
+            FileChannel ch = segment(bufStart / segmentSize, false);
+            long offset = bufStart % segmentSize;
+            int n = (int) Math.min(Math.min(buf.length, segmentSize - offset), end - bufStart);
+            ByteBuffer bb = ByteBuffer.wrap(buf, 0, n);
+            while (bb.hasRemaining() && ch.read(bb, offset + bb.position()) >= 0) {
+                // a torn segment may end early
+            }
+            bufLen = bb.position();
+            return bufLen > 0;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Predicate;
+
+/**
+ * LRU-K page replacement (O'Neil, O'Neil and Weikum).  The victim is the
+ * page whose K-th most recent reference lies furthest in the past.  Pages
+ * referenced fewer than K times have an infinite backward K-distance and go
+ * first, oldest last reference first, so a one-pass scan cannot push out
+ * pages that are referenced repeatedly.
+ * <p>
+ * Resident pages are kept in a tree ordered by eviction priority; hits and
+ * victim selection cost O(log n) instead of a scan over the whole pool.
+ */
+public class LruKReplacementPolicy implements ReplacementPolicy {
+
+    /** Default K; LRU-2 already captures most of the benefit. */
+    public static final int DEFAULT_K = 2;
+
+    private class History implements Comparable<History> {
+        final PageId pid;
+        // reference times, most recent first; 0 means "never"
+        final long[] refs;
+
+        History(PageId pid) {
+            this.pid = pid;
+            this.refs = new long[k];
+        }
+
+        void reference(long now) {
+            System.arraycopy(refs, 0, refs, 1, refs.length - 1);
+            refs[0] = now;
+        }
+
+        @Override
+        public int compareTo(History o) {
+            int c = Long.compare(refs[k - 1], o.refs[k - 1]);
+            if (c != 0) {
+                return c;
+            }
+            // reference times are unique, so this never ties for distinct pages
+            return Long.compare(refs[0], o.refs[0]);
+        }
+    }
+
+    private final int k;
+    private final Map<PageId, History> histories;
+    private final TreeSet<History> order;
+    private long clock;
+
+    public LruKReplacementPolicy() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k how many past references to remember per page
+     */
+    public LruKReplacementPolicy(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        this.k = k;
+        this.histories = new HashMap<>();
+        this.order = new TreeSet<>();
+        this.clock = 0;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (histories.containsKey(pid)) {
+            return;
+        }
+        History h = new History(pid);
+        h.reference(++clock);
+        histories.put(pid, h);
+        order.add(h);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        History h = histories.get(pid);
+        if (h == null) {
+            return;
+        }
+        order.remove(h);
+        h.reference(++clock);
+        order.add(h);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        History h = histories.remove(pid);
+        if (h != null) {
+            order.remove(h);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        for (History h : order) {
+            if (evictable.test(h.pid)) {
+                return h.pid;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,92 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * MappedFile maps a data file into memory, read only, in fixed size
+ * segments, so pages are read out of the OS page cache without a read
+ * system call.  The page still copies its bytes into a heap array once,
+ * as it does for a read, so that it can change them.
+ * <p>
+ * Segments are mapped on first use and remapped when the file has grown
+ * past their end.  Writes still go through the file's channel; on the
+ * platforms we run on a shared mapping sees them at once.  The file must
+ * not be truncated while it is mapped.
+ *
+ * @see HeapFile
+ */
+public class MappedFile {
+    /** Bytes per mapped segment. */
+    private static final long SEGMENT_SIZE = 64L << 20;
+
+    private final File file;
+    private FileChannel channel;
+    private volatile MappedByteBuffer[] segments;
+
+    public MappedFile(File file) {
+        this.file = file;
+        this.channel = null;
+        this.segments = new MappedByteBuffer[0];
+    }
+
+    /**
+     * Return a read only view of len bytes of the file starting at pos.
+     *
+     * @return the bytes, or null if they are past the end of the file or
+     *   straddle two segments; the caller should then read them normally
+     */
+    public ByteBuffer slice(long pos, int len) throws IOException {
+        int index = (int) (pos / SEGMENT_SIZE);
+        int offset = (int) (pos % SEGMENT_SIZE);
+        if (offset + (long) len > SEGMENT_SIZE) {
+            return null;
+        }
+        MappedByteBuffer[] current = segments;
+        MappedByteBuffer segment = index < current.length ? current[index] : null;
+        if (segment == null || segment.capacity() < offset + len) {
+            segment = map(index, offset + len);
+            if (segment == null) {
+                return null;
+            }
+        }
+        ByteBuffer view = segment.duplicate();
+        view.position(offset);
+        view.limit(offset + len);
+        return view.slice();
+    }
+
+    // (re)map a segment so that it covers at least its first end bytes
+    private synchronized MappedByteBuffer map(int index, int end) throws IOException {
+        MappedByteBuffer[] current = segments;
+        if (index < current.length && current[index] != null && current[index].capacity() >= end) {
+            return current[index];
+        }
+        if (channel == null || !channel.isOpen()) {
+            // a read only channel, so mapping can never extend the file
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        }
+        long start = index * SEGMENT_SIZE;
+        long size;
+        try {
+            size = Math.min(SEGMENT_SIZE, channel.size() - start);
+        } catch (ClosedChannelException e) {
+            channel = null;
+            throw e;
+        }
+        if (size < end) {
+            return null;
+        }
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        MappedByteBuffer[] next = index < current.length ? current.clone() : Arrays.copyOf(current, index + 1);
+        next[index] = segment;
+        segments = next;
+        return segment;
+    }
+}
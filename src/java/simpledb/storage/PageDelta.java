@@ -0,0 +1,200 @@
+package simpledb.storage;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PageDelta is the body of an UPDATE or TUPLE log record: the byte ranges in which
+ * two versions of a page differ, with the old and the new bytes of each.
+ * A tuple insert into a 4 KB page logs a few dozen bytes instead of both
+ * page images.
+ * <p>
+ * Applying the new bytes to a page redoes the change, applying the old
+ * bytes undoes it.  Deltas of one page are taken between consecutive
+ * logged versions of it, so that redoing them oldest first, or undoing
+ * them newest first, goes through the same versions again.
+ *
+ * @see LogFile#logWrite
+ */
+class PageDelta {
+    // ranges closer than this are logged as one, as each costs two ints
+    private static final int MIN_GAP = 2 * LogFile.INT_SIZE;
+
+    // null if the page class is not registered, which logs its name
+    private final PageType type;
+    private final String pageClassName;
+    private final PageId pid;
+    private final int pageSize;
+    private final List<int[]> ranges; // {offset, length}
+    private final List<byte[]> oldBytes;
+    private final List<byte[]> newBytes;
+
+    private PageDelta(PageType type, String pageClassName, PageId pid, int pageSize) {
+        this.type = type;
+        this.pageClassName = pageClassName;
+        this.pid = pid;
+        this.pageSize = pageSize;
+        this.ranges = new ArrayList<>();
+        this.oldBytes = new ArrayList<>();
+        this.newBytes = new ArrayList<>();
+    }
+
+    /** @return the changes that turn before into after */
+    static PageDelta diff(Page before, Page after) {
+        byte[] b = before.getPageData();
+        byte[] a = after.getPageData();
+        PageDelta delta = new PageDelta(PageType.of(after), after.getClass().getName(), after.getId(), a.length);
+        int i = 0;
+        while (i < a.length) {
+            if (b[i] == a[i]) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int end = i + 1;
+            for (i = end; i < a.length && i - end < MIN_GAP; i++) {
+                if (b[i] != a[i]) {
+                    end = i + 1;
+                }
+            }
+            delta.addRange(start, end - start, b, a);
+            i = end;
+        }
+        return delta;
+    }
+
+    private void addRange(int offset, int length, byte[] before, byte[] after) {
+        byte[] o = new byte[length];
+        byte[] n = new byte[length];
+        System.arraycopy(before, offset, o, 0, length);
+        System.arraycopy(after, offset, n, 0, length);
+        ranges.add(new int[]{offset, length});
+        oldBytes.add(o);
+        newBytes.add(n);
+    }
+
+    /** @return true if the two versions of the page were the same */
+    boolean isEmpty() {
+        return ranges.isEmpty();
+    }
+
+    PageId getPageId() {
+        return pid;
+    }
+
+    int getPageSize() {
+        return pageSize;
+    }
+
+    /** @return a page of the logged class with the given contents */
+    Page newPage(byte[] data) throws IOException {
+        if (type != null) {
+            return type.newPage(pid, data);
+        }
+        try {
+            Class<?> pageClass = Class.forName(pageClassName);
+            // pages may have other constructors too, e.g. from a ByteBuffer
+            Constructor<?> pageConst = pageClass.getDeclaredConstructor(pid.getClass(), byte[].class);
+            return (Page) pageConst.newInstance(pid, data);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("cannot make a page of class " + pageClassName, e);
+        }
+    }
+
+    /** Apply the new bytes to an image of the page. */
+    void redo(byte[] page) {
+        apply(page, newBytes);
+    }
+
+    /** Apply the old bytes to an image of the page. */
+    void undo(byte[] page) {
+        apply(page, oldBytes);
+    }
+
+    private void apply(byte[] page, List<byte[]> bytes) {
+        for (int i = 0; i < ranges.size(); i++) {
+            int[] range = ranges.get(i);
+            System.arraycopy(bytes.get(i), 0, page, range[0], range[1]);
+        }
+    }
+
+    /*
+     * A delta is written as:
+     *   page type code (see PageType)
+     *   for registered types, table id and page number
+     *   otherwise:
+     *     page class name
+     *     id class name
+     *     id class bytes
+     *     id class data
+     *   page size
+     *   number of ranges
+     *   offset, length, old bytes and new bytes of each range
+     */
+    void write(DataOutput out) throws IOException {
+        if (type != null) {
+            out.writeByte(type.code);
+            out.writeInt(pid.getTableId());
+            out.writeInt(pid.getPageNumber());
+        } else {
+            out.writeByte(PageType.UNREGISTERED);
+            out.writeUTF(pageClassName);
+            out.writeUTF(pid.getClass().getName());
+            int[] pageInfo = pid.serialize();
+            out.writeInt(pageInfo.length);
+            for (int j : pageInfo) {
+                out.writeInt(j);
+            }
+        }
+        out.writeInt(pageSize);
+        out.writeInt(ranges.size());
+        for (int i = 0; i < ranges.size(); i++) {
+            out.writeInt(ranges.get(i)[0]);
+            out.writeInt(ranges.get(i)[1]);
+            out.write(oldBytes.get(i));
+            out.write(newBytes.get(i));
+        }
+    }
+
+    static PageDelta read(DataInput in) throws IOException {
+        byte code = in.readByte();
+        PageType type = null;
+        String pageClassName = null;
+        PageId pid;
+        if (code != PageType.UNREGISTERED) {
+            type = PageType.forCode(code);
+            pid = type.newId(in.readInt(), in.readInt());
+        } else {
+            pageClassName = in.readUTF();
+            String idClassName = in.readUTF();
+            int numIdArgs = in.readInt();
+            Object[] idArgs = new Object[numIdArgs];
+            for (int i = 0; i < numIdArgs; i++) {
+                idArgs[i] = in.readInt();
+            }
+            try {
+                pid = (PageId) Class.forName(idClassName).getDeclaredConstructors()[0].newInstance(idArgs);
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("cannot read page id of class " + idClassName, e);
+            }
+        }
+        PageDelta delta = new PageDelta(type, pageClassName, pid, in.readInt());
+        int numRanges = in.readInt();
+        for (int i = 0; i < numRanges; i++) {
+            int offset = in.readInt();
+            int length = in.readInt();
+            byte[] o = new byte[length];
+            byte[] n = new byte[length];
+            in.readFully(o);
+            in.readFully(n);
+            delta.ranges.add(new int[]{offset, length});
+            delta.oldBytes.add(o);
+            delta.newBytes.add(n);
+        }
+        return delta;
+    }
+}
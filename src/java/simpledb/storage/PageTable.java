@@ -0,0 +1,193 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageTable maps page ids to the buffer pool frames that hold them.
+ * <p>
+ * Pages are keyed by (tableId, pageNo) packed into a single long, and the
+ * key space is split over a fixed number of stripes, each guarded by its
+ * own monitor.  Lookups for different pages therefore almost never contend,
+ * and none of them touch the BufferPool monitor.
+ *
+ * @see BufferPool
+ */
+class PageTable {
+
+    /**
+     * A buffer pool frame.  A frame is published in the table before its
+     * page has been read, so that concurrent requests for the same page wait
+     * for one read instead of each issuing their own.  The pin count keeps
+     * the replacement policy away from frames the pool is still working on.
+     */
+    static class Frame {
+        final PageId pid;
+        private volatile Page page;
+        private boolean loading;
+        private final AtomicInteger pinCount;
+        // the scan whose ring the frame is in, if any
+        volatile BufferRing ring;
+
+        Frame(PageId pid) {
+            this.pid = pid;
+            this.page = null;
+            this.loading = true;
+            this.pinCount = new AtomicInteger(0);
+        }
+
+        Frame(Page page) {
+            this(page.getId());
+            this.page = page;
+            this.loading = false;
+        }
+
+        /** @return the page held by this frame, or null while it is loading */
+        Page getPage() {
+            return page;
+        }
+
+        void setPage(Page page) {
+            this.page = page;
+        }
+
+        /**
+         * Publish the result of reading this frame's page and wake everybody
+         * waiting for it.  A version installed with setPage while the read
+         * was in flight is newer than the disk copy and is kept.
+         *
+         * @param page the page read from disk, or null if the read failed
+         */
+        synchronized void loaded(Page page) {
+            if (this.page == null) {
+                this.page = page;
+            }
+            this.loading = false;
+            notifyAll();
+        }
+
+        /**
+         * Block until the page of this frame has been read.
+         *
+         * @return the page, or null if reading it failed
+         */
+        synchronized Page awaitLoaded() throws InterruptedException {
+            while (loading) {
+                wait();
+            }
+            return page;
+        }
+
+        void pin() {
+            pinCount.incrementAndGet();
+        }
+
+        void unpin() {
+            pinCount.decrementAndGet();
+        }
+
+        boolean isPinned() {
+            return pinCount.get() > 0;
+        }
+    }
+
+    private static final int DEFAULT_STRIPES = 64;
+
+    private final Map<Long, Frame>[] stripes;
+    private final int mask;
+    private final AtomicInteger size;
+
+    PageTable() {
+        this(DEFAULT_STRIPES);
+    }
+
+    /**
+     * @param numStripes the number of independently locked partitions,
+     *   rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    PageTable(int numStripes) {
+        int n = Integer.highestOneBit(Math.max(1, numStripes - 1)) << 1;
+        this.stripes = new Map[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new HashMap<>();
+        }
+        this.mask = n - 1;
+        this.size = new AtomicInteger(0);
+    }
+
+    /** @return the packed (tableId, pageNo) key of a page id */
+    static long key(PageId pid) {
+        return ((long) pid.getTableId() << 32) | (pid.getPageNumber() & 0xffffffffL);
+    }
+
+    private Map<Long, Frame> stripe(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return stripes[(int) (h >>> 40) & mask];
+    }
+
+    /** @return the frame holding the given page, or null */
+    Frame get(PageId pid) {
+        long key = key(pid);
+        Map<Long, Frame> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    /**
+     * Install a frame unless the page already has one.
+     *
+     * @return the frame already present, or null if the new one was installed
+     */
+    Frame putIfAbsent(Frame frame) {
+        long key = key(frame.pid);
+        Map<Long, Frame> stripe = stripe(key);
+        synchronized (stripe) {
+            Frame old = stripe.get(key);
+            if (old != null) {
+                return old;
+            }
+            stripe.put(key, frame);
+        }
+        size.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Remove the given frame, provided it still holds its page.
+     *
+     * @return true if the frame was removed
+     */
+    boolean remove(Frame frame) {
+        long key = key(frame.pid);
+        Map<Long, Frame> stripe = stripe(key);
+        synchronized (stripe) {
+            if (stripe.get(key) != frame) {
+                return false;
+            }
+            stripe.remove(key);
+        }
+        size.decrementAndGet();
+        return true;
+    }
+
+    /** @return the number of frames in the table, including loading ones */
+    int size() {
+        return size.get();
+    }
+
+    /** @return a snapshot of all frames currently in the table */
+    List<Frame> frames() {
+        List<Frame> result = new ArrayList<>();
+        for (Map<Long, Frame> stripe : stripes) {
+            synchronized (stripe) {
+                result.addAll(stripe.values());
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeHeaderPage;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeRootPtrPage;
+
+import java.io.IOException;
+
+/**
+ * PageType is the registry of the page classes the log knows by a one byte
+ * code.  A log record of a registered page stores the code, the table id
+ * and the page number instead of the class names of the page and its id,
+ * and rollback and recovery make the page by calling its constructor
+ * directly instead of looking it up by reflection.
+ *
+ * @see PageDelta
+ */
+enum PageType {
+    HEAP(1, HeapPage.class) {
+        PageId newId(int tableId, int pageNo) {
+            return new HeapPageId(tableId, pageNo);
+        }
+
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new HeapPage((HeapPageId) pid, data);
+        }
+    },
+    BTREE_ROOT_PTR(2, BTreeRootPtrPage.class) {
+        PageId newId(int tableId, int pageNo) {
+            return new BTreePageId(tableId, pageNo, BTreePageId.ROOT_PTR);
+        }
+
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new BTreeRootPtrPage((BTreePageId) pid, data);
+        }
+    },
+    BTREE_INTERNAL(3, BTreeInternalPage.class) {
+        PageId newId(int tableId, int pageNo) {
+            return new BTreePageId(tableId, pageNo, BTreePageId.INTERNAL);
+        }
+
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new BTreeInternalPage((BTreePageId) pid, data, keyField(pid));
+        }
+    },
+    BTREE_LEAF(4, BTreeLeafPage.class) {
+        PageId newId(int tableId, int pageNo) {
+            return new BTreePageId(tableId, pageNo, BTreePageId.LEAF);
+        }
+
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new BTreeLeafPage((BTreePageId) pid, data, keyField(pid));
+        }
+    },
+    BTREE_HEADER(5, BTreeHeaderPage.class) {
+        PageId newId(int tableId, int pageNo) {
+            return new BTreePageId(tableId, pageNo, BTreePageId.HEADER);
+        }
+
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new BTreeHeaderPage((BTreePageId) pid, data);
+        }
+    },
+    SLOTTED_HEAP(6, SlottedHeapPage.class) {
+        PageId newId(int tableId, int pageNo) {
+            return new HeapPageId(tableId, pageNo);
+        }
+
+        Page newPage(PageId pid, byte[] data) throws IOException {
+            return new SlottedHeapPage((HeapPageId) pid, data);
+        }
+    };
+
+    /** The code of pages of no registered type. */
+    static final byte UNREGISTERED = 0;
+
+    private static final PageType[] BY_CODE = new PageType[7];
+
+    static {
+        for (PageType type : values()) {
+            BY_CODE[type.code] = type;
+        }
+    }
+
+    final byte code;
+    private final Class<? extends Page> pageClass;
+
+    PageType(int code, Class<? extends Page> pageClass) {
+        this.code = (byte) code;
+        this.pageClass = pageClass;
+    }
+
+    /** @return the id of the page of this type with the given number */
+    abstract PageId newId(int tableId, int pageNo);
+
+    /** @return a page of this type with the given contents */
+    abstract Page newPage(PageId pid, byte[] data) throws IOException;
+
+    /** @return the type of the page, or null if its class is not registered */
+    static PageType of(Page page) {
+        for (PageType type : values()) {
+            if (type.pageClass == page.getClass()) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /** @return the type of the page with the given id, or null if none has it */
+    static PageType ofId(PageId pid) {
+        for (PageType type : values()) {
+            if (type.newId(pid.getTableId(), pid.getPageNumber()).equals(pid)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the type with the given code
+     * @throws IOException if no type has the code
+     */
+    static PageType forCode(byte code) throws IOException {
+        if (code <= UNREGISTERED || code >= BY_CODE.length || BY_CODE[code] == null) {
+            throw new IOException("unknown page type " + code);
+        }
+        return BY_CODE[code];
+    }
+
+    private static int keyField(PageId pid) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(pid.getTableId())).keyField();
+    }
+}
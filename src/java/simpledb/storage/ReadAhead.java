@@ -0,0 +1,141 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.transaction.TransactionId;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * ReadAhead watches the heap pages each transaction asks the buffer pool
+ * for and, once a transaction has read a few consecutive pages of a table,
+ * reads the next pages of that table in the background, so that a
+ * sequential scan finds them in the pool instead of waiting for each read
+ * in turn.
+ * <p>
+ * Prefetches are issued in batches: whenever fewer than half a window of
+ * pages is left ahead of the reader, the window is topped up again.  The
+ * frames for a batch are reserved by the reader at once, so it waits for a
+ * prefetch in flight instead of reading the page a second time; the reads
+ * themselves run in order on a single daemon thread, which exits when there
+ * is nothing to do.  A prefetch takes no locks; it only puts the disk copy
+ * of a page that is not in the pool yet into the pool, and the scan still
+ * locks the page when it gets to it.
+ *
+ * @see BufferPool#getPage
+ */
+class ReadAhead {
+    /** Consecutive pages a transaction must read before we read ahead. */
+    static final int TRIGGER = 2;
+
+    /** The pages one transaction is reading from one table. */
+    private static class Stream {
+        int lastPage = -1;
+        int runLength = 0;
+        // the last page a prefetch has been issued for
+        int issuedUpTo = -1;
+    }
+
+    private final int window;
+    private final BiFunction<PageId, BufferRing, Runnable> reserver;
+    private final Map<TransactionId, Map<Integer, Stream>> streams;
+    private ThreadPoolExecutor executor;
+
+    /**
+     * @param window how many pages to keep ahead of a sequential reader;
+     *   0 disables read-ahead
+     * @param reserver reserves a frame, in the given ring if there is one,
+     *   for a page that is not in the pool yet and returns the read that
+     *   fills it, or returns null
+     */
+    ReadAhead(int window, BiFunction<PageId, BufferRing, Runnable> reserver) {
+        this.window = window;
+        this.reserver = reserver;
+        this.streams = new ConcurrentHashMap<>();
+        this.executor = null;
+    }
+
+    int getWindow() {
+        return window;
+    }
+
+    /**
+     * Note that a transaction has asked for a page, and prefetch the pages
+     * after it if this continues a sequential run.
+     *
+     * @param ring the ring of the scan asking, or null
+     */
+    void pageRequested(TransactionId tid, PageId pid, BufferRing ring) {
+        if (window <= 0 || tid == null || !(pid instanceof HeapPageId)) {
+            return;
+        }
+        Map<Integer, Stream> tables = streams.computeIfAbsent(tid, k -> new HashMap<>());
+        int from, to;
+        synchronized (tables) {
+            Stream stream = tables.computeIfAbsent(pid.getTableId(), k -> new Stream());
+            int pageNo = pid.getPageNumber();
+            if (pageNo == stream.lastPage) {
+                return;
+            }
+            if (pageNo == stream.lastPage + 1) {
+                stream.runLength++;
+            } else {
+                stream.runLength = 1;
+                stream.issuedUpTo = pageNo;
+            }
+            stream.lastPage = pageNo;
+            if (stream.runLength < TRIGGER || stream.issuedUpTo - pageNo > window / 2) {
+                return;
+            }
+            from = Math.max(stream.issuedUpTo, pageNo) + 1;
+            to = pageNo + window;
+            stream.issuedUpTo = to;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (!(file instanceof HeapFile)) {
+            return;
+        }
+        int numPages = ((HeapFile) file).numPages();
+        for (int pageNo = from; pageNo <= to && pageNo < numPages; pageNo++) {
+            Runnable read = reserver.apply(new HeapPageId(pid.getTableId(), pageNo), ring);
+            if (read != null) {
+                submit(read);
+            }
+        }
+    }
+
+    /**
+     * Forget the streams of a transaction that has completed.
+     */
+    void transactionComplete(TransactionId tid) {
+        streams.remove(tid);
+    }
+
+    private void submit(Runnable read) {
+        executor().execute(() -> {
+            try {
+                read.run();
+            } catch (RuntimeException e) {
+                // the frame is gone again; the reader will read the page itself
+            }
+        });
+    }
+
+    private synchronized ThreadPoolExecutor executor() {
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> {
+                        Thread t = new Thread(r, "read-ahead");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+        }
+        return executor;
+    }
+}
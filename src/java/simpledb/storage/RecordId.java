@@ -1,8 +1,6 @@
 package simpledb.storage;
 
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * A RecordId is a reference to a specific tuple on a specific page of a
@@ -74,9 +72,8 @@ public class RecordId implements Serializable {
     public int hashCode() {
         // some code goes here
         //throw new UnsupportedOperationException("implement this");
-        Map<Integer, PageId> hash = new HashMap<>();
-        hash.put(tupleNo, pageId);
-        return hash.hashCode();
+        // the hash of the singleton map {tupleNo=pageId}, without building it
+        return Integer.hashCode(tupleNo) ^ pageId.hashCode();
     }
 
 }
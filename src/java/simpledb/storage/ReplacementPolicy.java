@@ -0,0 +1,52 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which resident page BufferPool gives up when it
+ * needs room for a new one.  BufferPool reports every page that enters,
+ * is hit in, or leaves the cache; the policy keeps whatever bookkeeping it
+ * needs to pick a victim cheaply.
+ * <p>
+ * Implementations must tolerate being told about the same page twice and
+ * about pages they have never seen (those calls are ignored).
+ *
+ * @see BufferPool
+ * @see ClockReplacementPolicy
+ * @see LruKReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called when a page has been installed in the buffer pool.
+     *
+     * @param pid the id of the page that was added
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Called on every buffer pool hit for a resident page.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page has left the buffer pool, whether it was chosen as
+     * a victim or discarded explicitly.
+     *
+     * @param pid the id of the page that was removed
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Choose the page that should be evicted next.  The policy does not
+     * forget the page; BufferPool calls {@link #pageRemoved} once the page
+     * is actually gone.
+     *
+     * @param evictable tells whether a candidate may be evicted right now
+     *   (e.g. it is clean under NO STEAL)
+     * @return the victim, or null if no resident page is evictable
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+}
@@ -0,0 +1,300 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * SlottedHeapPage is the HeapPage of tables with variable length fields,
+ * e.g. {@link Type#VARCHAR_TYPE}.  A record takes only the bytes its
+ * values need, and is found through a directory of slots at the front of
+ * the page, so that its RecordId stays the same while it moves within the
+ * page.
+ * <p>
+ * The format of a SlottedHeapPage is:
+ * <ul>
+ * <li> an int: the number of slots in the directory
+ * <li> an int: the offset of the lowest record, or 0 if the page has none
+ * <li> for each slot, two unsigned shorts: the offset and the length of its
+ *      record, 0 and 0 if the slot is empty, or 0 and the length of a
+ *      deleted record whose delete has not committed yet
+ * <li> free space
+ * <li> the records, packed towards the end of the page
+ * </ul>
+ * An all zero page is an empty page.  The fields of a record are stored one
+ * after the other as {@link Field#serialize} writes them.  Deleted records
+ * leave holes that are reclaimed by moving the records together when an
+ * insert does not fit otherwise.  The bytes of a record whose delete may
+ * still be undone stay reserved for it, so that other inserts cannot take
+ * the room putting it back needs.  Pages are at most 64 KB.
+ *
+ * @see HeapPage
+ */
+public class SlottedHeapPage extends HeapPage {
+
+    static final int HEADER_SIZE = 8;
+    static final int SLOT_SIZE = 4;
+    static final int MAX_PAGE_SIZE = 0xFFFF;
+
+    private final ByteBuffer view;
+    private final int minRecordSize;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a SlottedHeapPage from the bytes between the position and the
+     * limit of a buffer.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    private SlottedHeapPage(HeapPageId id, ByteBuffer data, TupleDesc td) throws IOException {
+        super(id, td, data, getMaxSlots(td), HEADER_SIZE);
+        if (this.data.length > MAX_PAGE_SIZE) {
+            throw new IOException("slotted pages are at most " + MAX_PAGE_SIZE + " bytes");
+        }
+        this.view = ByteBuffer.wrap(this.data);
+        this.minRecordSize = getMinRecordSize(td);
+    }
+
+    /** @return true if tuples of the given schema are stored in slotted pages */
+    static boolean isSlotted(TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i).isVariableLength()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** @return the size of a record whose variable length fields are empty */
+    private static int getMinRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            Type type = td.getFieldType(i);
+            size += type.isVariableLength() ? 4 : type.getLen();
+        }
+        return size;
+    }
+
+    /** @return the number of slots a page of records of the smallest size has */
+    private static int getMaxSlots(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / (SLOT_SIZE + getMinRecordSize(td));
+    }
+
+    /**
+     * Add a record to the bytes of a slotted page, in a new slot after the
+     * last one.  Used to build pages without making a SlottedHeapPage, e.g.
+     * by HeapFileEncoder.
+     *
+     * @return false if the record does not fit
+     */
+    static boolean appendRecord(byte[] page, byte[] record) {
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        int count = buf.getInt(0);
+        int start = buf.getInt(4) == 0 ? page.length : buf.getInt(4);
+        int dirEnd = HEADER_SIZE + (count + 1) * SLOT_SIZE;
+        if (start - record.length < dirEnd) {
+            return false;
+        }
+        start -= record.length;
+        System.arraycopy(record, 0, page, start, record.length);
+        buf.putChar(HEADER_SIZE + count * SLOT_SIZE, (char) start);
+        buf.putChar(HEADER_SIZE + count * SLOT_SIZE + 2, (char) record.length);
+        buf.putInt(0, count + 1);
+        buf.putInt(4, start);
+        return true;
+    }
+
+    private int slotCount() {
+        return view.getInt(0);
+    }
+
+    private int recordsStart() {
+        int start = view.getInt(4);
+        return start == 0 ? data.length : start;
+    }
+
+    private int recordLength(int slotId) {
+        return view.getChar(HEADER_SIZE + slotId * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slotId, int offset, int length) {
+        view.putChar(HEADER_SIZE + slotId * SLOT_SIZE, (char) offset);
+        view.putChar(HEADER_SIZE + slotId * SLOT_SIZE + 2, (char) length);
+    }
+
+    /**
+     * @return the bytes not taken by the directory of the given number of
+     *         slots, by records or by reservations, counting the holes left
+     *         by deletes
+     */
+    private int freeSpace(int slots) {
+        int free = data.length - HEADER_SIZE - slots * SLOT_SIZE;
+        for (int i = 0; i < slotCount(); i++) {
+            free -= recordLength(i);
+        }
+        return free;
+    }
+
+    /** @return the bytes reserved for the deleted record of a slot, if any */
+    private int reserved(int slotId) {
+        return slotId < slotCount() && !isSlotUsed(slotId) ? recordLength(slotId) : 0;
+    }
+
+    @Override
+    int slotOffset(int slotId) {
+        return view.getChar(HEADER_SIZE + slotId * SLOT_SIZE);
+    }
+
+    @Override
+    int[] fieldOffsets(int slotId) {
+        int start = slotOffset(slotId);
+        int[] offsets = new int[td.numFields()];
+        int offset = 0;
+        for (int j = 0; j < offsets.length; j++) {
+            offsets[j] = offset;
+            Type type = td.getFieldType(j);
+            offset += type.isVariableLength() ? 4 + view.getInt(start + offset) : type.getLen();
+        }
+        return offsets;
+    }
+
+    /**
+     * Write the record of a tuple into the free space, moving the other
+     * records together first if it does not fit otherwise.  The bytes the
+     * slot has reserved count as free for it.
+     * @throws DbException if the page has no room for the tuple
+     */
+    @Override
+    void writeTuple(Tuple t, int slotId) throws DbException {
+        byte[] record = serialize(t);
+        int count = Math.max(slotCount(), slotId + 1);
+        if (record.length > freeSpace(count) + reserved(slotId)) {
+            throw new DbException("page is full");
+        }
+        int dirEnd = HEADER_SIZE + count * SLOT_SIZE;
+        if (recordsStart() - record.length < dirEnd) {
+            compact();
+            if (recordsStart() - record.length < dirEnd) {
+                throw new DbException("page is full");
+            }
+        }
+        int start = recordsStart() - record.length;
+        System.arraycopy(record, 0, data, start, record.length);
+        // the free space is zeros, so slots added in between are empty
+        setSlot(slotId, start, record.length);
+        view.putInt(0, count);
+        view.putInt(4, start);
+    }
+
+    @Override
+    void clearSlot(int slotId) {
+        int start = slotOffset(slotId);
+        Arrays.fill(data, start, start + recordLength(slotId), (byte) 0);
+        setSlot(slotId, 0, 0);
+    }
+
+    @Override
+    void deleteTupleReserved(Tuple t) throws DbException {
+        int slotId = t.getRecordId().getTupleNumber();
+        int length = isSlotUsed(slotId) ? recordLength(slotId) : 0;
+        deleteTuple(t);
+        setSlot(slotId, 0, length);
+    }
+
+    @Override
+    boolean releaseSlot(int slotId) {
+        if (reserved(slotId) == 0) {
+            return false;
+        }
+        copyOnWrite();
+        setSlot(slotId, 0, 0);
+        return true;
+    }
+
+    /** Move the records to the end of the page, so that the holes between them become free space. */
+    private void compact() {
+        // tuples handed out keep the fields they were read with
+        detachTuples();
+        byte[] records = new byte[data.length];
+        int start = data.length;
+        for (int i = 0; i < slotCount(); i++) {
+            if (isSlotUsed(i)) {
+                int length = recordLength(i);
+                start -= length;
+                System.arraycopy(data, slotOffset(i), records, start, length);
+                setSlot(i, start, length);
+            }
+        }
+        int dirEnd = HEADER_SIZE + slotCount() * SLOT_SIZE;
+        Arrays.fill(data, dirEnd, start, (byte) 0);
+        System.arraycopy(records, start, data, start, data.length - start);
+        view.putInt(4, start == data.length ? 0 : start);
+    }
+
+    @Override
+    public boolean isSlotUsed(int i) {
+        return i < slotCount() && slotOffset(i) != 0;
+    }
+
+    /**
+     * @return the first empty slot at or after from that a record of the
+     *         smallest size fits in, or -1 if there is none
+     */
+    @Override
+    public int nextEmptySlot(int from) {
+        int count = slotCount();
+        for (int i = from; i < count; i++) {
+            if (!isSlotUsed(i)) {
+                return freeSpace(count) >= minRecordSize ? i : -1;
+            }
+        }
+        int i = Math.max(from, count);
+        if (i < numSlots && freeSpace(i + 1) >= minRecordSize) {
+            return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean hasRoomFor(Tuple t, int slot) {
+        try {
+            return serialize(t).length <= freeSpace(Math.max(slotCount(), slot + 1)) + reserved(slot);
+        } catch (DbException e) {
+            // insertTuple tells why
+            return true;
+        }
+    }
+
+    /**
+     * @return the number of records of the smallest size that still fit
+     */
+    @Override
+    public int getNumEmptySlots() {
+        int count = slotCount();
+        int free = freeSpace(count);
+        int empty = 0;
+        for (int i = 0; i < count && free >= minRecordSize; i++) {
+            if (!isSlotUsed(i)) {
+                empty++;
+                free -= minRecordSize;
+            }
+        }
+        return empty + Math.min(numSlots - count, free / (SLOT_SIZE + minRecordSize));
+    }
+}
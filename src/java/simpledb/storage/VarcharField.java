@@ -0,0 +1,49 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.*;
+
+/**
+ * Instance of Field that stores a String in as many bytes as it needs.
+ * It compares and hashes like a StringField of the same value.
+ *
+ * @see Type#VARCHAR_TYPE
+ */
+public class VarcharField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 */
+	public VarcharField(String s, int maxSize) {
+		super(s, maxSize);
+	}
+
+	/**
+	 * Write this string to dos: four bytes of string length, then the
+	 * string, without padding.
+	 *
+	 * @param dos
+	 *            Where the string is written
+	 */
+	public void serialize(DataOutputStream dos) throws IOException {
+		String s = getValue();
+		dos.writeInt(s.length());
+		dos.writeBytes(s);
+	}
+
+	/**
+	 * @return the Type for this Field
+	 */
+	public Type getType() {
+
+		return Type.VARCHAR_TYPE;
+	}
+}
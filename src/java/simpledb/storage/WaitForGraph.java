@@ -0,0 +1,141 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * WaitForGraph records which transactions wait for which.  An edge
+ * waiter -> holder means the waiter cannot proceed until the holder
+ * releases a lock.  Edges are kept in adjacency sets in both directions, so
+ * adding or dropping the edges of one transaction costs time proportional
+ * to its own degree, and cycle checks only visit the part of the graph
+ * reachable from the transaction that is about to wait.
+ * <p>
+ * Not thread safe; LockManager calls it under its own monitor.
+ *
+ * @see LockManager
+ */
+public class WaitForGraph {
+    private final Map<TransactionId, Set<TransactionId>> waitsFor;
+    private final Map<TransactionId, Set<TransactionId>> waitedBy;
+
+    public WaitForGraph() {
+        this.waitsFor = new HashMap<>();
+        this.waitedBy = new HashMap<>();
+    }
+
+    /**
+     * Add edges from the waiter to each of the given transactions.  Self
+     * edges are ignored.
+     */
+    public void addEdges(TransactionId waiter, Collection<TransactionId> holders) {
+        for (TransactionId holder : holders) {
+            if (holder.equals(waiter)) {
+                continue;
+            }
+            if (waitsFor.computeIfAbsent(waiter, k -> new HashSet<>()).add(holder)) {
+                waitedBy.computeIfAbsent(holder, k -> new HashSet<>()).add(waiter);
+            }
+        }
+    }
+
+    /** Drop every edge leaving the given transaction; it no longer waits. */
+    public void clearEdges(TransactionId waiter) {
+        Set<TransactionId> holders = waitsFor.remove(waiter);
+        if (holders == null) {
+            return;
+        }
+        for (TransactionId holder : holders) {
+            unlink(waitedBy, holder, waiter);
+        }
+    }
+
+    /** Drop the transaction and every edge touching it. */
+    public void removeNode(TransactionId tid) {
+        clearEdges(tid);
+        Set<TransactionId> waiters = waitedBy.remove(tid);
+        if (waiters == null) {
+            return;
+        }
+        for (TransactionId waiter : waiters) {
+            unlink(waitsFor, waiter, tid);
+        }
+    }
+
+    private static void unlink(Map<TransactionId, Set<TransactionId>> edges,
+                               TransactionId from, TransactionId to) {
+        Set<TransactionId> targets = edges.get(from);
+        if (targets != null) {
+            targets.remove(to);
+            if (targets.isEmpty()) {
+                edges.remove(from);
+            }
+        }
+    }
+
+    /**
+     * @return true if the given transaction can reach itself, i.e. it is
+     *   part of a deadlock
+     */
+    public boolean hasCycleFrom(TransactionId start) {
+        Set<TransactionId> visited = new HashSet<>();
+        Deque<TransactionId> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            TransactionId node = stack.pop();
+            for (TransactionId next : waitsFor.getOrDefault(node, Collections.emptySet())) {
+                if (next.equals(start)) {
+                    return true;
+                }
+                if (visited.add(next)) {
+                    stack.push(next);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Search the whole graph for a cycle.
+     *
+     * @return the transactions of some cycle, or null if there is none
+     */
+    public List<TransactionId> findCycle() {
+        Set<TransactionId> done = new HashSet<>();
+        for (TransactionId root : waitsFor.keySet()) {
+            if (done.contains(root)) {
+                continue;
+            }
+            // iterative DFS keeping the current path, so a back edge into the
+            // path yields the cycle itself
+            List<TransactionId> path = new ArrayList<>();
+            Set<TransactionId> onPath = new HashSet<>();
+            Deque<Iterator<TransactionId>> iterators = new ArrayDeque<>();
+            path.add(root);
+            onPath.add(root);
+            iterators.push(waitsFor.get(root).iterator());
+            while (!iterators.isEmpty()) {
+                Iterator<TransactionId> it = iterators.peek();
+                if (!it.hasNext()) {
+                    iterators.pop();
+                    TransactionId finished = path.remove(path.size() - 1);
+                    onPath.remove(finished);
+                    done.add(finished);
+                    continue;
+                }
+                TransactionId next = it.next();
+                if (onPath.contains(next)) {
+                    return new ArrayList<>(path.subList(path.indexOf(next), path.size()));
+                }
+                if (done.contains(next)) {
+                    continue;
+                }
+                path.add(next);
+                onPath.add(next);
+                iterators.push(waitsFor.getOrDefault(next, Collections.<TransactionId>emptySet()).iterator());
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Utility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Iterator;
+
+public class AriesRecoveryTest extends TestUtil.CreateHeapFile {
+    private File logFile;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        logFile = File.createTempFile("log", ".dat");
+        logFile.deleteOnExit();
+    }
+
+    // log a tuple inserted into an empty page, and write the page out
+    private void insert(LogFile log, TransactionId tid, int pageNo, int value) throws Exception {
+        HeapPageId pid = new HeapPageId(empty.getId(), pageNo);
+        HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+        after.insertTuple(Utility.getHeapTuple(value, 2));
+        log.logWrite(tid, before, after);
+        log.force();
+        empty.writePage(after);
+    }
+
+    private int tuples(int pageNo) {
+        HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), pageNo));
+        int count = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * An abort takes back the changes of its own transaction only.
+     */
+    @Test public void rollbackFollowsOwnRecords() throws Exception {
+        LogFile log = new LogFile(logFile);
+        TransactionId t1 = new TransactionId();
+        TransactionId t2 = new TransactionId();
+        log.logXactionBegin(t1);
+        log.logXactionBegin(t2);
+        insert(log, t1, 0, 1);
+        insert(log, t2, 1, 2);
+        insert(log, t1, 2, 3);
+
+        log.logAbort(t1);
+        assertEquals(0, tuples(0));
+        assertEquals(1, tuples(1));
+        assertEquals(0, tuples(2));
+    }
+
+    /**
+     * A transaction running at the checkpoint is undone through its
+     * records from before the checkpoint, while the committed changes
+     * after it are redone.
+     */
+    @Test public void loserUndoneAcrossCheckpoint() throws Exception {
+        LogFile log = new LogFile(logFile);
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(loser);
+        insert(log, loser, 0, 1);
+        log.logCheckpoint();
+        TransactionId winner = new TransactionId();
+        log.logXactionBegin(winner);
+        HeapPageId pid = new HeapPageId(empty.getId(), 1);
+        HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+        after.insertTuple(Utility.getHeapTuple(2, 2));
+        log.logWrite(winner, new HeapPage(pid, HeapPage.createEmptyPageData()), after);
+        log.logCommit(winner);
+
+        new LogFile(logFile).recover();
+        assertEquals(0, tuples(0));
+        assertEquals(1, tuples(1));
+    }
+
+    /**
+     * Recovering again after a recovery changes nothing: the undone
+     * transactions were logged as aborted.
+     */
+    @Test public void recoveryRepeatable() throws Exception {
+        LogFile log = new LogFile(logFile);
+        TransactionId loser = new TransactionId();
+        log.logXactionBegin(loser);
+        TransactionId winner = new TransactionId();
+        log.logXactionBegin(winner);
+        for (int i = 0; i < 8; i++) {
+            insert(log, i % 2 == 0 ? loser : winner, i, i);
+        }
+        log.logCommit(winner);
+
+        new LogFile(logFile).recover();
+        new LogFile(logFile).recover();
+        for (int i = 0; i < 8; i++) {
+            assertEquals(i % 2 == 0 ? 0 : 1, tuples(i));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AriesRecoveryTest.class);
+    }
+}
@@ -11,15 +11,20 @@ import simpledb.index.BTreeUtility.*;
 import simpledb.storage.BufferPool;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.IntField;
+import simpledb.storage.LockManager.DeadlockPolicy;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 
 import java.util.*;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.transaction.TransactionId;
 
+@RunWith(Parameterized.class)
 public class BTreeDeadlockTest extends SimpleDbTestBase {
 	private Random rand;
 
@@ -34,6 +39,28 @@ public class BTreeDeadlockTest extends SimpleDbTestBase {
 	private int count1;
 	private int count2;
 
+	private final DeadlockPolicy policy;
+	private final long detectionInterval;
+
+	/**
+	 * The test runs under each way of handling deadlocks: per-request
+	 * detection, background detection, wait-die and wound-wait.
+	 */
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> policies() {
+		return Arrays.asList(new Object[][] {
+			{ "detection", DeadlockPolicy.DETECTION, 0L },
+			{ "background detection", DeadlockPolicy.DETECTION, 50L },
+			{ "wait-die", DeadlockPolicy.WAIT_DIE, 0L },
+			{ "wound-wait", DeadlockPolicy.WOUND_WAIT, 0L },
+		});
+	}
+
+	public BTreeDeadlockTest(String name, DeadlockPolicy policy, long detectionInterval) {
+		this.policy = policy;
+		this.detectionInterval = detectionInterval;
+	}
+
 	/**
 	 * Set up initial resources for each unit test.
 	 */
@@ -79,6 +106,8 @@ public class BTreeDeadlockTest extends SimpleDbTestBase {
 		// clear all state from the buffer pool, increase the number of pages
 		bp.flushAllPages();
 		bp = Database.resetBufferPool(500);
+		bp.setDeadlockPolicy(policy);
+		bp.setDeadlockDetectionInterval(detectionInterval);
 
 	}
 
@@ -0,0 +1,96 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    private static final int HOT_PAGES = 5;
+    private static final int BIG_PAGES = 100;
+
+    /* Counts the number of readPage operations. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        final AtomicInteger readCount = new AtomicInteger();
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private BufferPool bp;
+    private InstrumentedHeapFile hot;
+    private HeapFile big;
+    private List<List<Integer>> bigTuples;
+
+    @Before
+    public void setUp() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * HOT_PAGES, 1000, null, new ArrayList<>());
+        hot = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hot, SystemTestUtil.getUUID());
+        bigTuples = new ArrayList<>();
+        big = SystemTestUtil.createRandomHeapFile(1, 992 * BIG_PAGES, 1000, null, bigTuples);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private void readHotPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < HOT_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hot.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Only scans of more than a quarter of the pool get a ring.
+     */
+    @Test
+    public void smallScansNotRinged() {
+        assertNull(bp.newBufferRing(BufferPool.DEFAULT_PAGES / 4));
+        BufferRing ring = bp.newBufferRing(BIG_PAGES);
+        assertNotNull(ring);
+        assertTrue(ring.getCapacity() < BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * A sequential scan of a table twice the size of the pool leaves the
+     * pages other transactions use in the pool.
+     */
+    @Test
+    public void scanKeepsWorkingSet() throws Exception {
+        readHotPages();
+        assertEquals(HOT_PAGES, hot.readCount.get());
+
+        SystemTestUtil.matchTuples(big, bigTuples);
+
+        readHotPages();
+        assertEquals(HOT_PAGES, hot.readCount.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
@@ -5,6 +5,9 @@ import simpledb.TestUtil.LockGrabber;
 import java.util.*;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import junit.framework.JUnit4TestAdapter;
@@ -13,9 +16,11 @@ import simpledb.common.Permissions;
 import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager.DeadlockPolicy;
 import simpledb.storage.PageId;
 import simpledb.transaction.TransactionId;
 
+@RunWith(Parameterized.class)
 public class DeadlockTest extends TestUtil.CreateHeapFile {
   private PageId p0;
     private PageId p1;
@@ -28,6 +33,28 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
   // just so we have a pointer shorter than Database.getBufferPool
   private BufferPool bp;
 
+  private final DeadlockPolicy policy;
+  private final long detectionInterval;
+
+  /**
+   * Every test runs under each way of handling deadlocks: per-request
+   * detection, background detection, wait-die and wound-wait.
+   */
+  @Parameters(name = "{0}")
+  public static Collection<Object[]> policies() {
+    return Arrays.asList(new Object[][] {
+      { "detection", DeadlockPolicy.DETECTION, 0L },
+      { "background detection", DeadlockPolicy.DETECTION, 50L },
+      { "wait-die", DeadlockPolicy.WAIT_DIE, 0L },
+      { "wound-wait", DeadlockPolicy.WOUND_WAIT, 0L },
+    });
+  }
+
+  public DeadlockTest(String name, DeadlockPolicy policy, long detectionInterval) {
+    this.policy = policy;
+    this.detectionInterval = detectionInterval;
+  }
+
   /**
    * Set up initial resources for each unit test.
    */
@@ -61,6 +88,8 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid, p2, Permissions.READ_WRITE).markDirty(true, tid);
     bp.flushAllPages();
     bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    bp.setDeadlockPolicy(policy);
+    bp.setDeadlockDetectionInterval(detectionInterval);
   }
 
   /**
@@ -0,0 +1,75 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.Iterator;
+
+public class DeltaLogTest extends TestUtil.CreateHeapFile {
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    /**
+     * Logging a one tuple insert costs about the tuple, not two pages.
+     */
+    @Test public void smallChangeLogsFewBytes() throws Exception {
+        File logFile = File.createTempFile("log", ".dat");
+        logFile.deleteOnExit();
+        LogFile log = new LogFile(logFile);
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+        after.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        log.logWrite(new TransactionId(), before, after);
+        log.force();
+        assertTrue(new File(logFile.getPath() + ".0").length() < BufferPool.getPageSize() / 8);
+    }
+
+    /**
+     * Recovery redoes successive changes to one page in order.
+     */
+    @Test public void redoFollowsPageVersions() throws Exception {
+        Tuple first = Utility.getHeapTuple(new int[]{1, 1});
+        Transaction t1 = new Transaction();
+        t1.start();
+        Database.getBufferPool().insertTuple(t1.getId(), empty.getId(), first);
+        t1.commit();
+
+        Transaction t2 = new Transaction();
+        t2.start();
+        Database.getBufferPool().deleteTuple(t2.getId(), first);
+        Database.getBufferPool().insertTuple(t2.getId(), empty.getId(), Utility.getHeapTuple(new int[]{2, 2}));
+        t2.commit();
+
+        Database.reset();
+        empty = Utility.openHeapFile(2, empty.getFile());
+        Database.getLogFile().recover();
+
+        HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0));
+        Iterator<Tuple> it = page.iterator();
+        assertTrue(it.hasNext());
+        assertEquals(Utility.getHeapTuple(new int[]{2, 2}).getField(0), it.next().getField(0));
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DeltaLogTest.class);
+    }
+}
@@ -0,0 +1,136 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+    private BufferPool bp;
+    private List<Tuple> tuples;
+
+    /**
+     * Fill three pages through the buffer pool, commit and flush, so the
+     * first two are full on disk.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tuples = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1025; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            bp.insertTuple(tid, empty.getId(), t);
+            tuples.add(t);
+        }
+        bp.transactionComplete(tid, true);
+        bp.flushAllPages();
+        assertEquals(3, empty.numPages());
+    }
+
+    // insert in a new thread while another transaction holds page 0; the
+    // insert finishes only if it never looks at page 0
+    private Tuple insertPastLockedPage(HeapFile file) throws Exception {
+        TransactionId holder = new TransactionId();
+        bp.getPage(holder, new HeapPageId(file.getId(), 0), Permissions.READ_WRITE);
+
+        TransactionId tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        Thread inserter = new Thread(() -> {
+            try {
+                bp.insertTuple(tid, file.getId(), t);
+            } catch (Exception e) {
+                // left unfinished
+            }
+        });
+        inserter.start();
+        inserter.join(1000);
+        assertFalse(inserter.isAlive());
+        bp.transactionComplete(tid, true);
+        bp.transactionComplete(holder, true);
+        return t;
+    }
+
+    /**
+     * Full pages are not visited by inserts.
+     */
+    @Test public void fullPagesSkipped() throws Exception {
+        Tuple t = insertPastLockedPage(empty);
+        assertEquals(new HeapPageId(empty.getId(), 2), t.getRecordId().getPageId());
+    }
+
+    /**
+     * A page that had a tuple deleted is used again.
+     */
+    @Test public void deleteFreesPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        Tuple victim = tuples.get(600);
+        PageId page1 = victim.getRecordId().getPageId();
+        bp.deleteTuple(tid, victim);
+        bp.transactionComplete(tid, true);
+
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid, empty.getId(), t);
+        assertEquals(page1, t.getRecordId().getPageId());
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * The map outlives the HeapFile object, but not a rewrite of the file.
+     */
+    @Test public void mapIsPersistent() throws Exception {
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Tuple t = insertPastLockedPage(reopened);
+        assertEquals(new HeapPageId(reopened.getId(), 2), t.getRecordId().getPageId());
+
+        HeapFile rewritten = Utility.createEmptyHeapFile(empty.getFile().getAbsolutePath(), 2);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid, rewritten.getId(), t);
+        assertEquals(new HeapPageId(rewritten.getId(), 0), t.getRecordId().getPageId());
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * A page filled by an insert that never reached disk keeps its room
+     * after a crash.
+     */
+    @Test public void unwrittenFullPageNotMarked() throws Exception {
+        // fill page 2, which has 17 tuples, without writing it out
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 504 - 17; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+
+        HeapFile reopened = Utility.openHeapFile(2, empty.getFile());
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        bp.insertTuple(tid, reopened.getId(), t);
+        assertEquals(new HeapPageId(reopened.getId(), 2), t.getRecordId().getPageId());
+        bp.transactionComplete(tid, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
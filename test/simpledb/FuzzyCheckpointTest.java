@@ -0,0 +1,144 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Page;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+
+public class FuzzyCheckpointTest extends TestUtil.CreateHeapFile {
+    private static final int TUPLES = 100;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    private void commitTuples(int count) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < count; ++i) {
+            Database.getBufferPool().insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        t.commit();
+    }
+
+    // the tuples on disk, bypassing the buffer pool
+    private int countTuplesOnDisk() {
+        int count = 0;
+        for (int i = 0; i < empty.numPages(); i++) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), i));
+            for (Iterator<?> it = page.iterator(); it.hasNext(); it.next()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A checkpoint goes through while the buffer pool is held.
+     */
+    @Test public void checkpointDoesNotLockPool() throws Exception {
+        commitTuples(TUPLES);
+        CountDownLatch held = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        Thread holder = new Thread(() -> {
+            synchronized (Database.getBufferPool()) {
+                held.countDown();
+                try {
+                    done.await();
+                } catch (InterruptedException e) {
+                    // let go
+                }
+            }
+        });
+        holder.start();
+        held.await();
+        try {
+            Database.getLogFile().logCheckpoint();
+        } finally {
+            done.countDown();
+            holder.join();
+        }
+    }
+
+    /**
+     * Commits whose pages were still dirty at the checkpoint are redone
+     * from their records before it.
+     */
+    @Test public void dirtyPagesRedoneAfterCheckpoint() throws Exception {
+        commitTuples(TUPLES);
+        Database.getLogFile().logCheckpoint();
+        Database.reset();
+        empty = Utility.openHeapFile(2, empty.getFile());
+        Database.getLogFile().recover();
+        assertEquals(TUPLES, countTuplesOnDisk());
+    }
+
+    /**
+     * The page writer writes the pages a checkpoint found dirty.
+     */
+    @Test public void checkpointPagesWrittenInBackground() throws Exception {
+        commitTuples(TUPLES);
+        Database.getLogFile().logCheckpoint();
+        for (int i = 0; i < 100 && countTuplesOnDisk() < TUPLES; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(TUPLES, countTuplesOnDisk());
+    }
+
+    /**
+     * A page the page writer fails to write fails the next checkpoint, so
+     * the log is not truncated, and is written once writes work again.
+     */
+    @Test public void backgroundWriteFailureReported() throws Exception {
+        boolean[] failWrites = {false};
+        empty = new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+            @Override
+            public void writePage(Page page) throws IOException {
+                if (failWrites[0]) {
+                    throw new IOException("disk full");
+                }
+                super.writePage(page);
+            }
+        };
+        Database.getCatalog().addTable(empty, SystemTestUtil.getUUID());
+        commitTuples(TUPLES);
+
+        failWrites[0] = true;
+        boolean failed = false;
+        for (int i = 0; i < 100 && !failed; i++) {
+            try {
+                Database.getLogFile().logCheckpoint();
+                Thread.sleep(50);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+        assertTrue(failed);
+        assertEquals(0, countTuplesOnDisk());
+
+        failWrites[0] = false;
+        for (int i = 0; i < 100 && countTuplesOnDisk() < TUPLES; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(TUPLES, countTuplesOnDisk());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FuzzyCheckpointTest.class);
+    }
+}
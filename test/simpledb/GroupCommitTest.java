@@ -0,0 +1,78 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+    private static final int THREADS = 8;
+    private static final int COMMITS = 25;
+
+    private static void commitTransactions(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            t.commit();
+        }
+    }
+
+    /**
+     * A lone committer still gets its commit forced.
+     */
+    @Test
+    public void singleCommitForced() throws Exception {
+        LogFile log = Database.getLogFile();
+        int forces = log.getTotalForces();
+        commitTransactions(1);
+        assertEquals(forces + 1, log.getTotalForces());
+    }
+
+    /**
+     * Concurrent committers share forces of the log.
+     */
+    @Test
+    public void concurrentCommitsShareForces() throws Exception {
+        LogFile log = Database.getLogFile();
+        // start the log before counting
+        commitTransactions(1);
+        int records = log.getTotalRecords();
+        int forces = log.getTotalForces();
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    commitTransactions(COMMITS);
+                } catch (Exception e) {
+                    failure.set(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+        // a BEGIN and a COMMIT each
+        assertEquals(2 * THREADS * COMMITS, log.getTotalRecords() - records);
+        assertTrue(log.getTotalForces() - forces <= THREADS * COMMITS / 2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
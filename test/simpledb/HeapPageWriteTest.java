@@ -14,6 +14,7 @@ import simpledb.common.DbException;
 import simpledb.common.Utility;
 import simpledb.storage.HeapPage;
 import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -131,6 +132,43 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Tuples read from a page keep their fields after they are deleted, and
+     * inserted tuples are in the page bytes.
+     */
+    @Test public void deletedTupleKeepsFields() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][0], ((IntField) first.getField(0)).getValue());
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[0][1], ((IntField) first.getField(1)).getValue());
+
+        Tuple addition = Utility.getHeapTuple(new int[]{7, 8});
+        page.insertTuple(addition);
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        boolean found = false;
+        for (Iterator<Tuple> it = copy.iterator(); it.hasNext(); ) {
+            found |= TestUtil.compareTuples(addition, it.next());
+        }
+        assertTrue(found);
+    }
+
+    /**
+     * The before image is the page as it was when it was last set, whether
+     * or not the page was changed since.
+     */
+    @Test public void beforeImageCopiedOnWrite() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(new int[]{7, 8}));
+        page.markDirty(true, new TransactionId());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,122 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LockManager.LockType;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionId;
+
+public class LockEscalationTest extends TestUtil.CreateHeapFile {
+    private PageId p0, p1, p2;
+    private TransactionId tid1, tid2;
+
+    /** Time to wait before checking the state of lock contention, in ms */
+    private static final int TIMEOUT = 100;
+
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+
+        // three pages, as in LockingTest
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1025; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+
+        this.p0 = new HeapPageId(empty.getId(), 0);
+        this.p1 = new HeapPageId(empty.getId(), 1);
+        this.p2 = new HeapPageId(empty.getId(), 2);
+        this.tid1 = new TransactionId();
+        this.tid2 = new TransactionId();
+
+        // forget the locks taken while filling the table
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private void grabLock(TransactionId tid, PageId pid, Permissions perm,
+                          boolean expected) throws Exception {
+        TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        assertEquals(expected, t.acquired());
+        t.stop();
+    }
+
+    /**
+     * Unit test for LockManager.LockType: the multi-granularity
+     * compatibility matrix and mode upgrades.
+     */
+    @Test public void lockModes() {
+        LockType S = LockType.READ_LOCK, X = LockType.WRITE_LOCK;
+        LockType IS = LockType.INTENTION_SHARED, IX = LockType.INTENTION_EXCLUSIVE;
+        LockType SIX = LockType.SHARED_INTENTION_EXCLUSIVE;
+
+        assertTrue(IS.isCompatibleWith(SIX));
+        assertTrue(IX.isCompatibleWith(IX));
+        assertFalse(IX.isCompatibleWith(S));
+        assertFalse(SIX.isCompatibleWith(IX));
+        assertFalse(X.isCompatibleWith(IS));
+
+        assertEquals(SIX, S.combine(IX));
+        assertEquals(IX, IS.combine(IX));
+        assertEquals(X, SIX.combine(X));
+        assertTrue(SIX.coversChildren(S));
+        assertFalse(SIX.coversChildren(X));
+    }
+
+    /**
+     * Readers of different pages share the table; a writer is only blocked
+     * on the page actually read.
+     */
+    @Test public void noEscalationBelowThreshold() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        assertFalse(bp.holdsLock(tid1, p2));
+        grabLock(tid2, p2, Permissions.READ_WRITE, true);
+    }
+
+    /**
+     * Past the threshold the page locks become one table S lock: it covers
+     * pages never read, lets other readers in and keeps writers out.
+     */
+    @Test public void escalateToTableLock() throws Exception {
+        bp.setLockEscalationThreshold(1);
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        assertTrue(bp.holdsLock(tid1, p2));
+
+        grabLock(tid2, p2, Permissions.READ_ONLY, true);
+        grabLock(new TransactionId(), p2, Permissions.READ_WRITE, false);
+    }
+
+    /**
+     * Escalation does not wait: with a writer elsewhere in the table the
+     * reader keeps its page locks.
+     */
+    @Test public void escalationSkippedOnConflict() throws Exception {
+        bp.setLockEscalationThreshold(1);
+        bp.getPage(tid2, p2, Permissions.READ_WRITE);
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid1, p1, Permissions.READ_ONLY);
+        assertFalse(bp.holdsLock(tid1, p2));
+
+        bp.transactionComplete(tid2);
+        grabLock(new TransactionId(), p2, Permissions.READ_WRITE, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockEscalationTest.class);
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+public class LogBufferTest extends TestUtil.CreateHeapFile {
+    // a few times the size of the log buffer
+    private static final int PAGES = 100;
+
+    private File logFile;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        logFile = File.createTempFile("log", ".dat");
+        logFile.deleteOnExit();
+    }
+
+    /**
+     * Records reach the log file when the log is forced, not before.
+     */
+    @Test public void appendsBuffered() throws Exception {
+        LogFile log = new LogFile(logFile);
+        log.logXactionBegin(new TransactionId());
+        File segment = new File(logFile.getPath() + ".0");
+        assertEquals(0, segment.length());
+        log.force();
+        // type, tid, previous record and start offset of the BEGIN record
+        assertEquals(4 + 8 + 8 + 8, segment.length());
+    }
+
+    /**
+     * Records that did not fit into the buffer at once are read back
+     * intact.
+     */
+    @Test public void recordsSurviveBufferWrap() throws Exception {
+        LogFile log = new LogFile(logFile);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        for (int i = 0; i < PAGES; i++) {
+            HeapPageId pid = new HeapPageId(empty.getId(), i);
+            HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+            HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+            // a full page, so the record is about the size of two pages
+            while (after.getNumEmptySlots() > 0) {
+                after.insertTuple(Utility.getHeapTuple(i, 2));
+            }
+            log.logWrite(tid, before, after);
+        }
+        log.logCommit(tid);
+
+        new LogFile(logFile).recover();
+        assertEquals(PAGES, empty.numPages());
+        for (int i = 0; i < PAGES; i++) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), i));
+            assertEquals(Utility.getHeapTuple(i, 2).getField(0), page.iterator().next().getField(0));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogBufferTest.class);
+    }
+}
@@ -0,0 +1,90 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.nio.ByteBuffer;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class MappedFileTest extends SimpleDbTestBase {
+    private HeapFile hf;
+    private HeapFile mapped;
+
+    @Before
+    public void setUp() throws Exception {
+        // about three pages
+        hf = SystemTestUtil.createRandomHeapFile(2, 1200, null, null);
+        mapped = new HeapFile(hf.getFile(), hf.getTupleDesc(), true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for HeapFile.readPage() through a memory mapping: the pages
+     * are the same as those read with read calls.
+     */
+    @Test
+    public void readMappedPages() throws Exception {
+        assertTrue(mapped.isMemoryMapped());
+        assertFalse(hf.isMemoryMapped());
+        assertEquals(hf.numPages(), mapped.numPages());
+        for (int i = 0; i < hf.numPages(); i++) {
+            Page expected = hf.readPage(new HeapPageId(hf.getId(), i));
+            Page actual = mapped.readPage(new HeapPageId(mapped.getId(), i));
+            assertArrayEquals(expected.getPageData(), actual.getPageData());
+        }
+        assertNull(mapped.readPage(new HeapPageId(mapped.getId(), hf.numPages())));
+    }
+
+    /**
+     * Pages appended after the file was mapped are readable too.
+     */
+    @Test
+    public void readAfterGrowth() throws Exception {
+        mapped.readPage(new HeapPageId(mapped.getId(), 0));
+        HeapPageId pid = new HeapPageId(mapped.getId(), mapped.numPages());
+        mapped.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertEquals(page.getNumEmptySlots(), ((HeapPage) hf.readPage(pid)).getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for Type.parse(ByteBuffer)
+     */
+    @Test
+    public void parseFromBuffer() throws Exception {
+        ByteBuffer buf = ByteBuffer.allocate(Type.INT_TYPE.getLen() + Type.STRING_TYPE.getLen());
+        new IntField(42).serialize(new java.io.DataOutputStream(new ByteBufferOutput(buf)));
+        new StringField("abc", Type.STRING_LEN).serialize(new java.io.DataOutputStream(new ByteBufferOutput(buf)));
+        buf.flip();
+        assertEquals(new IntField(42), Type.INT_TYPE.parse(buf));
+        assertEquals(new StringField("abc", Type.STRING_LEN), Type.STRING_TYPE.parse(buf));
+        assertFalse(buf.hasRemaining());
+    }
+
+    private static class ByteBufferOutput extends java.io.OutputStream {
+        private final ByteBuffer buf;
+
+        ByteBufferOutput(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public void write(int b) {
+            buf.put((byte) b);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(MappedFileTest.class);
+    }
+}
@@ -0,0 +1,94 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class NoForceTest extends TestUtil.CreateHeapFile {
+    private static final int TUPLES = 100;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+    }
+
+    private Transaction insertTuples(int count) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < count; ++i) {
+            Database.getBufferPool().insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+        return t;
+    }
+
+    private int countTuples() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    // the tuples on disk, bypassing the buffer pool
+    private int countTuplesOnDisk() {
+        int count = 0;
+        for (int i = 0; i < empty.numPages(); i++) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), i));
+            for (java.util.Iterator<?> it = page.iterator(); it.hasNext(); it.next()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A commit writes the log, not the pages.
+     */
+    @Test public void commitLeavesPagesInPool() throws Exception {
+        insertTuples(TUPLES).commit();
+        assertEquals(0, countTuplesOnDisk());
+        assertEquals(TUPLES, countTuples());
+    }
+
+    /**
+     * Recovery redoes a commit whose pages never reached disk.
+     */
+    @Test public void commitSurvivesCrash() throws Exception {
+        insertTuples(TUPLES).commit();
+        Database.reset();
+        empty = Utility.openHeapFile(2, empty.getFile());
+        Database.getLogFile().recover();
+        assertEquals(TUPLES, countTuplesOnDisk());
+    }
+
+    /**
+     * An abort on a page holding an unwritten commit keeps the commit.
+     */
+    @Test public void abortKeepsUnwrittenCommit() throws Exception {
+        insertTuples(TUPLES).commit();
+        insertTuples(TUPLES).abort();
+        assertEquals(TUPLES, countTuples());
+        Database.getBufferPool().flushAllPages();
+        assertEquals(TUPLES, countTuplesOnDisk());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NoForceTest.class);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.Aggregator;
+import simpledb.execution.NumericAggregator;
+import simpledb.execution.OpIterator;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class NumericAggregatorTest extends SimpleDbTestBase {
+
+  private final TupleDesc td = new TupleDesc(new Type[]{
+      Type.INT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.DATE_TYPE });
+
+  private Tuple tuple(int group, long l, double d, String date) {
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(group));
+    t.setField(1, new LongField(l));
+    t.setField(2, new DoubleField(d));
+    t.setField(3, new DateField(LocalDate.parse(date)));
+    return t;
+  }
+
+  private List<Tuple> tuples() {
+    List<Tuple> tuples = new ArrayList<>();
+    tuples.add(tuple(1, 3000000000L, 1.5, "2020-01-31"));
+    tuples.add(tuple(1, 4000000000L, 2.5, "2019-12-31"));
+    tuples.add(tuple(2, -5L, 0.25, "2021-06-01"));
+    return tuples;
+  }
+
+  /** @return the aggregate of each group */
+  private Map<Field, Field> aggregate(int afield, Aggregator.Op op) throws Exception {
+    NumericAggregator agg = new NumericAggregator(0, Type.INT_TYPE, afield, td.getFieldType(afield), op);
+    for (Tuple t : tuples()) {
+      agg.mergeTupleIntoGroup(t);
+    }
+    Map<Field, Field> result = new HashMap<>();
+    OpIterator it = agg.iterator();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(NumericAggregator.resultType(td.getFieldType(afield), op), t.getTupleDesc().getFieldType(1));
+      result.put(t.getField(0), t.getField(1));
+    }
+    it.close();
+    return result;
+  }
+
+  /**
+   * Sums of longs do not overflow an int, and averages are doubles.
+   */
+  @Test public void longs() throws Exception {
+    assertEquals(new LongField(7000000000L), aggregate(1, Aggregator.Op.SUM).get(new IntField(1)));
+    assertEquals(new LongField(4000000000L), aggregate(1, Aggregator.Op.MAX).get(new IntField(1)));
+    assertEquals(new LongField(-5L), aggregate(1, Aggregator.Op.MIN).get(new IntField(2)));
+    assertEquals(new DoubleField(3.5e9), aggregate(1, Aggregator.Op.AVG).get(new IntField(1)));
+    assertEquals(new IntField(2), aggregate(1, Aggregator.Op.COUNT).get(new IntField(1)));
+  }
+
+  @Test public void doubles() throws Exception {
+    assertEquals(new DoubleField(4.0), aggregate(2, Aggregator.Op.SUM).get(new IntField(1)));
+    assertEquals(new DoubleField(2.0), aggregate(2, Aggregator.Op.AVG).get(new IntField(1)));
+    assertEquals(new DoubleField(1.5), aggregate(2, Aggregator.Op.MIN).get(new IntField(1)));
+  }
+
+  /**
+   * Dates have a MIN and a MAX, but no SUM.
+   */
+  @Test public void dates() throws Exception {
+    assertEquals(new DateField(LocalDate.parse("2019-12-31")), aggregate(3, Aggregator.Op.MIN).get(new IntField(1)));
+    assertEquals(new DateField(LocalDate.parse("2020-01-31")), aggregate(3, Aggregator.Op.MAX).get(new IntField(1)));
+    try {
+      new NumericAggregator(0, Type.INT_TYPE, 3, Type.DATE_TYPE, Aggregator.Op.SUM);
+      fail("expected IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(NumericAggregatorTest.class);
+  }
+}
@@ -0,0 +1,111 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.DoubleHistogram;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.File;
+import java.time.LocalDate;
+import java.util.Iterator;
+
+public class NumericTypesTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[]{Type.LONG_TYPE, Type.DOUBLE_TYPE, Type.DATE_TYPE});
+        File f = File.createTempFile("numeric", ".dat");
+        f.deleteOnExit();
+        HeapFile table = new HeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        pid = new HeapPageId(table.getId(), 0);
+    }
+
+    /**
+     * Values are stored in the fixed width layout and read back.
+     */
+    @Test public void storedInHeapPages() throws Exception {
+        assertEquals(8 + 8 + 4, td.getSize());
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 10; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new LongField(Long.MAX_VALUE - i));
+            t.setField(1, new DoubleField(i / 4.0));
+            t.setField(2, new DateField(LocalDate.of(2000, 1, 1).plusDays(i)));
+            page.insertTuple(t);
+        }
+        Iterator<Tuple> it = new HeapPage(pid, page.getPageData()).iterator();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = it.next();
+            assertEquals(Long.MAX_VALUE - i, ((LongField) t.getField(0)).getValue());
+            assertEquals(i / 4.0, ((DoubleField) t.getField(1)).getValue(), 0);
+            assertEquals(LocalDate.of(2000, 1, 1).plusDays(i), ((DateField) t.getField(2)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Constants parse from text, and compare as numbers, not strings.
+     */
+    @Test public void parseAndCompare() throws Exception {
+        Field big = Type.LONG_TYPE.parse("10000000000");
+        Field small = Type.LONG_TYPE.parse(" 9 ");
+        assertTrue(big.compare(Predicate.Op.GREATER_THAN, small));
+        assertTrue(Type.DOUBLE_TYPE.parse("-0.5").compare(Predicate.Op.LESS_THAN, Type.DOUBLE_TYPE.parse("0.25")));
+        Field date = Type.DATE_TYPE.parse("2021-03-04");
+        assertEquals("2021-03-04", date.toString());
+        assertTrue(date.compare(Predicate.Op.GREATER_THAN, Type.DATE_TYPE.parse("2020-12-31")));
+        try {
+            Type.DATE_TYPE.parse("yesterday");
+            fail("expected ParseException");
+        } catch (java.text.ParseException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Histograms over whole numbers estimate ranges by bucket.
+     */
+    @Test public void histogramSelectivity() {
+        DoubleHistogram h = new DoubleHistogram(100, 0, 1000, true);
+        for (int i = 0; i < 1000; i++) {
+            h.addValue(i);
+        }
+        assertEquals(0.5, h.estimateSelectivity(Predicate.Op.LESS_THAN, 500), 0.02);
+        assertEquals(0.1, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 900), 0.02);
+        assertEquals(0.001, h.estimateSelectivity(Predicate.Op.EQUALS, 500), 0.001);
+        assertEquals(1.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, -1), 0);
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.GREATER_THAN, 1000), 0);
+    }
+
+    /**
+     * Buckets of doubles narrower than one do not make an equality match
+     * the whole bucket.
+     */
+    @Test public void narrowDoubleHistogramSelectivity() {
+        DoubleHistogram h = new DoubleHistogram(100, 0, 1, false);
+        for (int i = 0; i < 1000; i++) {
+            h.addValue(i / 1000.0);
+        }
+        assertEquals(0.001, h.estimateSelectivity(Predicate.Op.EQUALS, 0.5), 0.0005);
+        assertEquals(0.999, h.estimateSelectivity(Predicate.Op.NOT_EQUALS, 0.5), 0.0005);
+        assertEquals(0.5, h.estimateSelectivity(Predicate.Op.LESS_THAN, 0.5), 0.02);
+        assertEquals(0.0, h.estimateSelectivity(Predicate.Op.EQUALS, 2), 0);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(NumericTypesTest.class);
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Utility;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeInternalPage;
+import simpledb.index.BTreeLeafPage;
+import simpledb.index.BTreePage;
+import simpledb.index.BTreePageId;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.storage.Page;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+public class PageTypeTest extends SimpleDbTestBase {
+    /**
+     * A record of a registered page type names no classes.
+     */
+    @Test public void recordsCompact() throws Exception {
+        File f = File.createTempFile("empty", ".dat");
+        f.deleteOnExit();
+        int tableId = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2).getId();
+        File logFile = File.createTempFile("log", ".dat");
+        logFile.deleteOnExit();
+        LogFile log = new LogFile(logFile);
+        HeapPageId pid = new HeapPageId(tableId, 0);
+        HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+        after.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        log.logWrite(new TransactionId(), before, after);
+        log.force();
+        // the record with two small ranges
+        assertTrue(new File(logFile.getPath() + ".0").length() < 100);
+    }
+
+    /**
+     * B+ tree pages can be read back from the log.
+     */
+    @Test public void btreePagesRecovered() throws Exception {
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0, 2);
+        BTreePageId leafId = new BTreePageId(bf.getId(), 1, BTreePageId.LEAF);
+        BTreePageId internalId = new BTreePageId(bf.getId(), 2, BTreePageId.INTERNAL);
+        Page leaf = BTreeUtility.createRandomLeafPage(leafId, 2, 0, 0, 100);
+        Page internal = BTreeUtility.createRandomInternalPage(internalId, 0, BTreePageId.LEAF, 0, 100, 3);
+
+        File logFile = File.createTempFile("log", ".dat");
+        logFile.deleteOnExit();
+        LogFile log = new LogFile(logFile);
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        log.logWrite(tid, new BTreeLeafPage(leafId, BTreePage.createEmptyPageData(), 0), leaf);
+        log.logWrite(tid, new BTreeInternalPage(internalId, BTreePage.createEmptyPageData(), 0), internal);
+        log.logCommit(tid);
+
+        new LogFile(logFile).recover();
+        assertArrayEquals(leaf.getPageData(), bf.readPage(leafId).getPageData());
+        assertArrayEquals(internal.getPageData(), bf.readPage(internalId).getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageTypeTest.class);
+    }
+}
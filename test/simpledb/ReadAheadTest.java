@@ -0,0 +1,133 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 20;
+
+    /* Counts the pages read by the scanning thread and by everybody else. */
+    private static class InstrumentedHeapFile extends HeapFile {
+        final Thread scanner = Thread.currentThread();
+        final AtomicInteger scannerReads = new AtomicInteger();
+        final AtomicInteger otherReads = new AtomicInteger();
+
+        InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            if (Thread.currentThread() == scanner) {
+                scannerReads.incrementAndGet();
+            } else {
+                otherReads.incrementAndGet();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /* Counts the pages written. */
+    private static class WriteCountingHeapFile extends HeapFile {
+        final AtomicInteger writes = new AtomicInteger();
+
+        WriteCountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws java.io.IOException {
+            writes.incrementAndGet();
+            super.writePage(page);
+        }
+    }
+
+    private InstrumentedHeapFile table;
+    private List<List<Integer>> tuples;
+
+    @Before
+    public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, tuples);
+        table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * A sequential scan has most of its pages read for it in the background,
+     * and every page is still read exactly once.
+     */
+    @Test
+    public void scanReadsAhead() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(table, tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(PAGES, table.scannerReads.get() + table.otherReads.get());
+        // the scan reads the first two pages itself, which starts the read-ahead
+        assertEquals(2, table.scannerReads.get());
+    }
+
+    /**
+     * With read-ahead turned off the scan reads every page itself.
+     */
+    @Test
+    public void readAheadOff() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setReadAhead(0);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(table, tid, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(PAGES, table.scannerReads.get());
+        assertEquals(0, table.otherReads.get());
+    }
+
+    /**
+     * Read-ahead only takes the place of clean pages: it never writes out a
+     * dirty page for a read that may not be used.
+     */
+    @Test
+    public void readAheadDoesNotSteal() throws Exception {
+        int poolPages = 8;
+        BufferPool bp = Database.resetBufferPool(poolPages);
+        bp.setReadAhead(4);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * poolPages, 1000, null, new ArrayList<>());
+        WriteCountingHeapFile dirty = new WriteCountingHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(dirty, SystemTestUtil.getUUID());
+        TransactionId writer = new TransactionId();
+        for (int i = 0; i < poolPages; i++) {
+            bp.getPage(writer, new HeapPageId(dirty.getId(), i), Permissions.READ_WRITE).markDirty(true, writer);
+        }
+
+        // the first page steals a dirty page, the second takes the place of
+        // the first, which starts the read-ahead
+        TransactionId reader = new TransactionId();
+        bp.getPage(reader, new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(reader, new HeapPageId(table.getId(), 1), Permissions.READ_ONLY);
+        assertEquals(1, dirty.writes.get());
+        assertEquals(2, table.scannerReads.get());
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
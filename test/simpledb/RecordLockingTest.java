@@ -0,0 +1,192 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.RecordId;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+public class RecordLockingTest extends TestUtil.CreateHeapFile {
+    private PageId p0;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        p0 = new HeapPageId(empty.getId(), 0);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    private int countTuples(TransactionId tid) throws Exception {
+        HeapPage page = (HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY);
+        int count = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Two transactions insert into the same page without waiting for each
+     * other; aborting one leaves the other's tuple in place.
+     */
+    @Test public void concurrentInsertsShareAPage() throws Exception {
+        Tuple t1 = Utility.getHeapTuple(1, 2);
+        Tuple t2 = Utility.getHeapTuple(2, 2);
+        bp.insertTuple(tid1, empty.getId(), t1);
+        bp.insertTuple(tid2, empty.getId(), t2);
+        assertEquals(p0, t1.getRecordId().getPageId());
+        assertEquals(p0, t2.getRecordId().getPageId());
+        assertNotEquals(t1.getRecordId(), t2.getRecordId());
+
+        bp.transactionComplete(tid1, false);
+        bp.transactionComplete(tid2, true);
+
+        TransactionId reader = new TransactionId();
+        assertEquals(1, countTuples(reader));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A slot freed by an uncommitted delete is not reused, so the delete can
+     * still be undone.
+     */
+    @Test public void deletedSlotStaysLocked() throws Exception {
+        Tuple t1 = Utility.getHeapTuple(1, 2);
+        bp.insertTuple(tid1, empty.getId(), t1);
+        bp.transactionComplete(tid1, true);
+        RecordId rid = t1.getRecordId();
+
+        TransactionId deleter = new TransactionId();
+        bp.deleteTuple(deleter, t1);
+        Tuple t2 = Utility.getHeapTuple(2, 2);
+        bp.insertTuple(tid2, empty.getId(), t2);
+        assertNotEquals(rid, t2.getRecordId());
+
+        bp.transactionComplete(deleter, false);
+        bp.transactionComplete(tid2, true);
+
+        TransactionId reader = new TransactionId();
+        assertEquals(2, countTuples(reader));
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * Deleting a record another transaction is changing waits for it.
+     */
+    @Test public void deleteWaitsForRecord() throws Exception {
+        Tuple t1 = Utility.getHeapTuple(1, 2);
+        bp.insertTuple(tid1, empty.getId(), t1);
+
+        Thread deleter = new Thread(() -> {
+            try {
+                bp.deleteTuple(tid2, t1);
+            } catch (Exception e) {
+                // aborted by the test
+            }
+        });
+        deleter.start();
+        deleter.join(100);
+        assertTrue(deleter.isAlive());
+
+        bp.transactionComplete(tid1, true);
+        deleter.join(1000);
+        assertFalse(deleter.isAlive());
+        bp.transactionComplete(tid2, true);
+    }
+
+    private Transaction begin() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        return t;
+    }
+
+    private void insert(Transaction t, int value) throws Exception {
+        Database.getBufferPool().insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(value, 2));
+    }
+
+    // crash without writing out the pool, recover, and read page 0 from disk
+    private Set<Integer> recoverPage0() throws Exception {
+        File f = empty.getFile();
+        Database.reset();
+        HeapFile table = Utility.openHeapFile(2, f);
+        Database.getLogFile().recover();
+        HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), 0));
+        Set<Integer> values = new HashSet<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            values.add(((IntField) it.next().getField(0)).getValue());
+        }
+        return values;
+    }
+
+    private static Set<Integer> setOf(Integer... values) {
+        return new HashSet<>(java.util.Arrays.asList(values));
+    }
+
+    /**
+     * A commit on a page another transaction is still changing does not
+     * make the other's changes survive a crash.
+     */
+    @Test public void recoveryUndoesOtherWriterOnPage() throws Exception {
+        Transaction t0 = begin();
+        insert(t0, 1);
+        t0.commit();
+        Transaction t1 = begin();
+        Transaction t2 = begin();
+        insert(t1, 10);
+        insert(t2, 20);
+        t1.commit();
+
+        assertEquals(setOf(1, 10), recoverPage0());
+    }
+
+    /**
+     * An uncommitted delete on a shared page is undone by recovery, and an
+     * abort done before the crash stays undone.
+     */
+    @Test public void recoveryUndoesDeleteAndAbortOnPage() throws Exception {
+        Transaction t0 = begin();
+        Tuple one = Utility.getHeapTuple(1, 2);
+        Database.getBufferPool().insertTuple(t0.getId(), empty.getId(), one);
+        insert(t0, 2);
+        t0.commit();
+        Transaction deleter = begin();
+        Transaction aborter = begin();
+        Transaction winner = begin();
+        Database.getBufferPool().deleteTuple(deleter.getId(), one);
+        insert(aborter, 30);
+        insert(winner, 40);
+        aborter.abort();
+        winner.commit();
+
+        assertEquals(setOf(1, 2, 40), recoverPage0());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecordLockingTest.class);
+    }
+}
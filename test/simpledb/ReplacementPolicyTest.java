@@ -0,0 +1,84 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.ClockReplacementPolicy;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LruKReplacementPolicy;
+import simpledb.storage.PageId;
+import simpledb.storage.ReplacementPolicy;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import static org.junit.Assert.*;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static PageId pid(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: a page that keeps being hit
+     * survives while pages touched once are evicted.
+     */
+    @Test public void clockKeepsHotPage() {
+        ReplacementPolicy policy = new ClockReplacementPolicy(4);
+        for (int i = 0; i < 4; i++) {
+            policy.pageAdded(pid(i));
+        }
+        policy.pageAccessed(pid(0));
+
+        PageId victim = policy.chooseVictim(p -> true);
+        assertEquals(pid(1), victim);
+        policy.pageRemoved(victim);
+        policy.pageAdded(pid(4));
+        policy.pageAccessed(pid(0));
+
+        victim = policy.chooseVictim(p -> true);
+        assertNotEquals(pid(0), victim);
+    }
+
+    /**
+     * Unit test for ClockReplacementPolicy: non-evictable pages are skipped
+     * and null is returned when nothing qualifies.
+     */
+    @Test public void clockSkipsPinned() {
+        ReplacementPolicy policy = new ClockReplacementPolicy(3);
+        for (int i = 0; i < 3; i++) {
+            policy.pageAdded(pid(i));
+        }
+        assertEquals(pid(2), policy.chooseVictim(p -> p.getPageNumber() == 2));
+        assertNull(policy.chooseVictim(p -> false));
+    }
+
+    /**
+     * Unit test for LruKReplacementPolicy: pages with fewer than K references
+     * go first, oldest first, then by K-th most recent reference.
+     */
+    @Test public void lruKOrder() {
+        ReplacementPolicy policy = new LruKReplacementPolicy(2);
+        policy.pageAdded(pid(0));
+        policy.pageAdded(pid(1));
+        policy.pageAdded(pid(2));
+        policy.pageAccessed(pid(0));
+        policy.pageAccessed(pid(1));
+
+        // page 2 was referenced only once
+        assertEquals(pid(2), policy.chooseVictim(p -> true));
+        policy.pageRemoved(pid(2));
+
+        // page 0's second most recent reference is older than page 1's
+        assertEquals(pid(0), policy.chooseVictim(p -> true));
+        assertEquals(pid(1), policy.chooseVictim(p -> !p.equals(pid(0))));
+        assertNull(policy.chooseVictim(p -> false));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
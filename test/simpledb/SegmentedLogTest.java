@@ -0,0 +1,97 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Utility;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.LogFile;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+public class SegmentedLogTest extends TestUtil.CreateHeapFile {
+    // smaller than a page, so most records span segments
+    private static final int SEGMENT_SIZE = 1024;
+    private static final int PAGES = 20;
+
+    private File logFile;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        logFile = File.createTempFile("log", ".dat");
+        logFile.deleteOnExit();
+    }
+
+    private int segmentFiles() {
+        String prefix = logFile.getName() + ".";
+        int count = 0;
+        for (File f : logFile.getAbsoluteFile().getParentFile().listFiles()) {
+            if (f.getName().startsWith(prefix)) {
+                f.deleteOnExit();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // log and write a full version of each page, in one transaction
+    private void commitFullPages(LogFile log, int value) throws Exception {
+        TransactionId tid = new TransactionId();
+        log.logXactionBegin(tid);
+        for (int i = 0; i < PAGES; i++) {
+            HeapPageId pid = new HeapPageId(empty.getId(), i);
+            HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+            HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+            while (after.getNumEmptySlots() > 0) {
+                after.insertTuple(Utility.getHeapTuple(value, 2));
+            }
+            log.logWrite(tid, before, after);
+        }
+        log.logCommit(tid);
+    }
+
+    /**
+     * Records running over segment boundaries are read back intact.
+     */
+    @Test public void recordsSpanSegments() throws Exception {
+        LogFile log = new LogFile(logFile, SEGMENT_SIZE);
+        commitFullPages(log, 7);
+        assertTrue(segmentFiles() > PAGES);
+
+        new LogFile(logFile, SEGMENT_SIZE).recover();
+        for (int i = 0; i < PAGES; i++) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), i));
+            assertEquals(Utility.getHeapTuple(7, 2).getField(0), page.iterator().next().getField(0));
+        }
+    }
+
+    /**
+     * A checkpoint with no dirty pages and no running transactions
+     * deletes the segments before it, and recovery starts from what is
+     * left.
+     */
+    @Test public void checkpointDeletesSegments() throws Exception {
+        commitFullPages(new LogFile(logFile, SEGMENT_SIZE), 7);
+        // recovery leaves all pages written
+        LogFile log = new LogFile(logFile, SEGMENT_SIZE);
+        log.recover();
+        int before = segmentFiles();
+        log.logCheckpoint();
+        assertTrue(segmentFiles() <= 2);
+        assertTrue(segmentFiles() < before);
+
+        new LogFile(logFile, SEGMENT_SIZE).recover();
+        HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), PAGES - 1));
+        assertEquals(Utility.getHeapTuple(7, 2).getField(0), page.iterator().next().getField(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedLogTest.class);
+    }
+}
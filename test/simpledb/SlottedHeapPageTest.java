@@ -0,0 +1,261 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+
+    private TupleDesc td;
+    private HeapFile table;
+    private HeapPageId pid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[]{Type.INT_TYPE, Type.VARCHAR_TYPE});
+        File f = File.createTempFile("varchar", ".dat");
+        f.deleteOnExit();
+        table = new HeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        pid = new HeapPageId(table.getId(), 0);
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new VarcharField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    private static String name(int i) {
+        return "name" + i;
+    }
+
+    /**
+     * Short strings take only their length, so many more fit on a page
+     * than fixed length slots would hold.
+     */
+    @Test public void shortStringsPackTightly() throws Exception {
+        HeapPage page = HeapPage.of(pid, ByteBuffer.wrap(HeapPage.createEmptyPageData()));
+        assertTrue(page instanceof SlottedHeapPage);
+        int n = 0;
+        while (page.nextEmptySlot(0) >= 0 && page.hasRoomFor(tuple(n, name(n)), page.nextEmptySlot(0))) {
+            page.insertTuple(tuple(n, name(n)));
+            n++;
+        }
+        int fixed = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        assertTrue(n > 4 * fixed);
+
+        // the records read back from the page bytes
+        HeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(name(i), ((StringField) t.getField(1)).getValue());
+            assertEquals(i, t.getRecordId().getTupleNumber());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Space freed by deletes is reused, and tuples handed out before keep
+     * their fields when records move.
+     */
+    @Test public void deletedSpaceReused() throws Exception {
+        HeapPage page = new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+        int n = 0;
+        while (page.nextEmptySlot(0) >= 0 && page.hasRoomFor(tuple(n, name(n)), page.nextEmptySlot(0))) {
+            page.insertTuple(tuple(n, name(n)));
+            n++;
+        }
+        List<Tuple> read = new ArrayList<>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            read.add(it.next());
+        }
+        // free every other record, then fill the page with longer ones
+        for (int i = 0; i < n; i += 2) {
+            page.deleteTuple(read.get(i));
+        }
+        String longer = "a somewhat longer name";
+        int added = 0;
+        while (page.nextEmptySlot(0) >= 0 && page.hasRoomFor(tuple(-1, longer), page.nextEmptySlot(0))) {
+            page.insertTuple(tuple(-1, longer));
+            added++;
+        }
+        assertTrue(added > 0);
+        for (int i = 0; i < n; i++) {
+            assertEquals(name(i), ((StringField) read.get(i).getField(1)).getValue());
+        }
+        int found = 0;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            int i = ((IntField) t.getField(0)).getValue();
+            assertEquals(i < 0 ? longer : name(i), ((StringField) t.getField(1)).getValue());
+            found++;
+        }
+        assertEquals(n - (n + 1) / 2 + added, found);
+    }
+
+    /**
+     * Text files with varchar columns convert to slotted pages that a
+     * scan reads back.
+     */
+    @Test public void encodedFileScans() throws Exception {
+        File text = File.createTempFile("varchar", ".txt");
+        text.deleteOnExit();
+        int rows = 1000;
+        BufferedWriter w = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < rows; i++) {
+            w.write(i + "," + name(i) + "\n");
+        }
+        w.close();
+        File data = File.createTempFile("varchar", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2, new Type[]{Type.INT_TYPE, Type.VARCHAR_TYPE});
+        HeapFile f = new HeapFile(data, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        assertTrue(f.numPages() < rows * td.getSize() / BufferPool.getPageSize() / 4);
+
+        SeqScan scan = new SeqScan(new TransactionId(), f.getId());
+        scan.open();
+        int i = 0;
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals(name(i), t.getField(1).toString());
+            i++;
+        }
+        scan.close();
+        assertEquals(rows, i);
+    }
+
+    /**
+     * Committed inserts into slotted pages are redone by recovery.
+     */
+    @Test public void insertsRecovered() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = 0; i < 50; i++) {
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), tuple(i, name(i)));
+        }
+        t.commit();
+
+        File f = table.getFile();
+        Database.reset();
+        table = new HeapFile(f, td);
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        Database.getLogFile().recover();
+
+        int n = 0;
+        for (int p = 0; p < table.numPages(); p++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), p));
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); n++) {
+                Tuple tup = it.next();
+                assertEquals(name(((IntField) tup.getField(0)).getValue()), tup.getField(1).toString());
+            }
+        }
+        assertEquals(50, n);
+    }
+
+    /**
+     * The room of a record whose delete has not committed is kept for it:
+     * an insert racing the delete goes elsewhere, and the abort that puts
+     * the record back still finds room for it.
+     */
+    @Test public void abortedDeleteKeepsItsRoom() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        String longer = "a somewhat longer name";
+        TransactionId filler = new TransactionId();
+        Tuple victim = tuple(0, longer);
+        bp.insertTuple(filler, table.getId(), victim);
+        for (int i = 1; table.numPages() < 2; i++) {
+            bp.insertTuple(filler, table.getId(), tuple(i, longer));
+        }
+        bp.transactionComplete(filler, true);
+        assertEquals(pid, victim.getRecordId().getPageId());
+
+        TransactionId deleter = new TransactionId();
+        bp.deleteTuple(deleter, victim);
+        TransactionId inserter = new TransactionId();
+        Tuple racer = tuple(-1, longer);
+        bp.insertTuple(inserter, table.getId(), racer);
+        assertNotEquals(pid, racer.getRecordId().getPageId());
+
+        bp.transactionComplete(deleter, false);
+        bp.transactionComplete(inserter, true);
+
+        TransactionId reader = new TransactionId();
+        HeapPage page = (HeapPage) bp.getPage(reader, pid, Permissions.READ_ONLY);
+        boolean found = false;
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+            found |= ((IntField) it.next().getField(0)).getValue() == 0;
+        }
+        assertTrue(found);
+        bp.transactionComplete(reader);
+    }
+
+    /**
+     * A page with room for small records only is not visited again by
+     * inserts of records that did not fit it, but still takes small ones.
+     */
+    @Test public void pageTooSmallSkipped() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        String longer = "a name long enough to leave room on a page";
+        TransactionId filler = new TransactionId();
+        for (int i = 0; table.numPages() < 2; i++) {
+            bp.insertTuple(filler, table.getId(), tuple(i, longer));
+        }
+        bp.transactionComplete(filler, true);
+        assertTrue(((HeapPage) table.readPage(pid)).getNumEmptySlots() > 0);
+
+        // the insert finishes only if it never looks at page 0
+        TransactionId holder = new TransactionId();
+        bp.getPage(holder, pid, Permissions.READ_WRITE);
+        TransactionId inserter = new TransactionId();
+        Tuple big = tuple(-1, longer);
+        Thread thread = new Thread(() -> {
+            try {
+                bp.insertTuple(inserter, table.getId(), big);
+            } catch (Exception e) {
+                // left unfinished
+            }
+        });
+        thread.start();
+        thread.join(1000);
+        assertFalse(thread.isAlive());
+        bp.transactionComplete(inserter, true);
+        bp.transactionComplete(holder, true);
+
+        TransactionId small = new TransactionId();
+        Tuple t = tuple(-2, "x");
+        bp.insertTuple(small, table.getId(), t);
+        assertEquals(pid, t.getRecordId().getPageId());
+        bp.transactionComplete(small, true);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.TransactionId;
+
+public class StealTest extends TestUtil.CreateHeapFile {
+    private static final int POOL_PAGES = 5;
+    // about ten pages' worth
+    private static final int TUPLES = 5000;
+
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        bp = Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private void insertTuples(TransactionId tid, int count) throws Exception {
+        for (int i = 0; i < count; ++i) {
+            bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+        }
+    }
+
+    private int countTuples() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        return count;
+    }
+
+    // the tuples on disk, bypassing the buffer pool
+    private int countTuplesOnDisk() throws Exception {
+        int count = 0;
+        for (int i = 0; i < empty.numPages(); i++) {
+            HeapPage page = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), i));
+            count += tuplesOn(page);
+        }
+        return count;
+    }
+
+    private int tuplesOn(HeapPage page) {
+        int count = 0;
+        for (java.util.Iterator<?> it = page.iterator(); it.hasNext(); it.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * A transaction may dirty more pages than the pool holds.
+     */
+    @Test public void largeTransactionCommits() throws Exception {
+        TransactionId tid = new TransactionId();
+        insertTuples(tid, TUPLES);
+        bp.transactionComplete(tid, true);
+        assertTrue(empty.numPages() > POOL_PAGES);
+        assertEquals(TUPLES, countTuples());
+        bp.flushAllPages();
+        assertEquals(TUPLES, countTuplesOnDisk());
+    }
+
+    /**
+     * Aborting such a transaction takes back what was written out.
+     */
+    @Test public void largeTransactionAborts() throws Exception {
+        TransactionId committed = new TransactionId();
+        insertTuples(committed, 10);
+        bp.transactionComplete(committed, true);
+
+        TransactionId tid = new TransactionId();
+        insertTuples(tid, TUPLES);
+        assertTrue(countTuplesOnDisk() > 10);
+        bp.transactionComplete(tid, false);
+        assertEquals(10, countTuples());
+        assertEquals(10, countTuplesOnDisk());
+    }
+
+    /**
+     * The page writer writes dirty pages out before anybody needs the room.
+     */
+    @Test public void pageWriterTrickles() throws Exception {
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        // more than half of the pool
+        insertTuples(tid, TUPLES * 3);
+        assertTrue(empty.numPages() < BufferPool.DEFAULT_PAGES);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (countTuplesOnDisk() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(countTuplesOnDisk() > 0);
+        bp.transactionComplete(tid, true);
+        bp.flushAllPages();
+        assertEquals(TUPLES * 3, countTuplesOnDisk());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(StealTest.class);
+    }
+}
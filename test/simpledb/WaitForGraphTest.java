@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.WaitForGraph;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class WaitForGraphTest extends SimpleDbTestBase {
+
+    private WaitForGraph graph;
+    private TransactionId t1, t2, t3;
+
+    @Before public void setUp() {
+        graph = new WaitForGraph();
+        t1 = new TransactionId();
+        t2 = new TransactionId();
+        t3 = new TransactionId();
+    }
+
+    /**
+     * Unit test for WaitForGraph.hasCycleFrom(): a chain is not a deadlock,
+     * closing it is.
+     */
+    @Test public void cycleFromRequester() {
+        graph.addEdges(t1, Collections.singletonList(t2));
+        graph.addEdges(t2, Collections.singletonList(t3));
+        assertFalse(graph.hasCycleFrom(t1));
+        assertFalse(graph.hasCycleFrom(t3));
+
+        graph.addEdges(t3, Collections.singletonList(t1));
+        assertTrue(graph.hasCycleFrom(t3));
+        assertTrue(graph.hasCycleFrom(t1));
+    }
+
+    /**
+     * Unit test for WaitForGraph.clearEdges() and removeNode().
+     */
+    @Test public void removeEdges() {
+        graph.addEdges(t1, Arrays.asList(t1, t2));
+        graph.addEdges(t2, Collections.singletonList(t1));
+        assertTrue(graph.hasCycleFrom(t1));
+
+        graph.clearEdges(t2);
+        assertFalse(graph.hasCycleFrom(t1));
+
+        graph.addEdges(t2, Collections.singletonList(t1));
+        graph.removeNode(t1);
+        assertFalse(graph.hasCycleFrom(t2));
+        assertNull(graph.findCycle());
+    }
+
+    /**
+     * Unit test for WaitForGraph.findCycle()
+     */
+    @Test public void findCycle() {
+        graph.addEdges(t1, Collections.singletonList(t2));
+        assertNull(graph.findCycle());
+
+        graph.addEdges(t2, Collections.singletonList(t3));
+        graph.addEdges(t3, Collections.singletonList(t2));
+        List<TransactionId> cycle = graph.findCycle();
+        assertNotNull(cycle);
+        assertEquals(2, cycle.size());
+        assertTrue(cycle.contains(t2));
+        assertTrue(cycle.contains(t3));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WaitForGraphTest.class);
+    }
+}
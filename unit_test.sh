@@ -17,7 +17,9 @@ LAB3_TESTS="simpledb.IntHistogramTest simpledb.TableStatsTest simpledb.systemtes
 # TODO: finish simpledb.systemtest.AbortEvictionTest
 LAB4_TESTS="simpledb.LockingTest simpledb.TransactionTest simpledb.DeadlockTest simpledb.systemtest.TransactionTest"
 
-TESTS="$LAB1_TESTS $LAB2_TESTS $LAB3_TESTS $LAB4_TESTS"
+STORAGE_TESTS="simpledb.ReplacementPolicyTest simpledb.WaitForGraphTest simpledb.LockEscalationTest simpledb.RecordLockingTest simpledb.FreeSpaceMapTest simpledb.MappedFileTest simpledb.ReadAheadTest simpledb.BufferRingTest simpledb.StealTest simpledb.NoForceTest simpledb.GroupCommitTest simpledb.LogBufferTest simpledb.DeltaLogTest simpledb.PageTypeTest simpledb.AriesRecoveryTest simpledb.FuzzyCheckpointTest simpledb.SegmentedLogTest simpledb.SlottedHeapPageTest simpledb.NumericTypesTest simpledb.NumericAggregatorTest"
+
+TESTS="$LAB1_TESTS $LAB2_TESTS $LAB3_TESTS $LAB4_TESTS $STORAGE_TESTS"
 
 if [ "$1" = "debug" ]; then
 	JAVA="java -agentlib:jdwp=transport=dt_socket,server=y,suspend=y,address=5005"